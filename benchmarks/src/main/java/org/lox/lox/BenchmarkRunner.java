@@ -0,0 +1,36 @@
+package org.lox.lox;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The JMH launcher with the GC profiler always on, so every run reports
+ * allocation rate next to time. Takes the usual JMH command line, e.g.
+ * {@code java -jar target/benchmarks.jar WorkloadBenchmark -p engine=vm}.
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+    CommandLineOptions options = new CommandLineOptions(args);
+    if (options.shouldHelp()) {
+      options.showHelp();
+      return;
+    }
+
+    Runner runner = new Runner(new OptionsBuilder()
+        .parent(options)
+        .addProfiler(GCProfiler.class)
+        .build());
+    if (options.shouldList()) {
+      runner.list();
+    } else {
+      runner.run();
+    }
+  }
+}
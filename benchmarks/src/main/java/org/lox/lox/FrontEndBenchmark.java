@@ -0,0 +1,72 @@
+package org.lox.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanner, Parser and Resolver on their own. Each stage starts from the
+ * output of the one before it. The Resolver writes into the tree it walks,
+ * so it gets a freshly parsed one every time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+
+  @Param({"binary_trees", "points", "oop"})
+  public String script;
+
+  private String source;
+  private List<Token> tokens;
+
+  /** A tree straight from the Parser, not yet resolved or optimized. */
+  @State(Scope.Thread)
+  public static class Parsed {
+    List<Stmt> statements;
+
+    @Setup(Level.Invocation)
+    public void parse(FrontEndBenchmark benchmark) {
+      statements = new Parser(benchmark.tokens).parse();
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    source = Scripts.source(script);
+    tokens = new Scanner(source).scanTokens();
+    // Fail here rather than time a script with errors.
+    Scripts.resolve(source);
+  }
+
+  @Benchmark
+  public List<Token> scan() {
+    return new Scanner(source).scanTokens();
+  }
+
+  @Benchmark
+  public List<Stmt> parse() {
+    return new Parser(tokens).parse();
+  }
+
+  @Benchmark
+  public List<Stmt> resolve(Parsed parsed) {
+    new Resolver().resolve(parsed.statements);
+    return parsed.statements;
+  }
+}
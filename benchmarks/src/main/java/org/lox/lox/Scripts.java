@@ -0,0 +1,55 @@
+package org.lox.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/** Loads the bench/ workloads that Maven copies onto the classpath. */
+final class Scripts {
+
+  /** Swallows what the scripts log so it doesn't end up in the results. */
+  static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+  });
+
+  private Scripts() {}
+
+  static String source(String name) {
+    InputStream input = Scripts.class.getResourceAsStream("/bench/" + name + ".lox");
+    if (input == null) {
+      throw new IllegalArgumentException("No workload named '" + name + "'.");
+    }
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      for (int read; (read = input.read(buffer)) != -1; ) {
+        bytes.write(buffer, 0, read);
+      }
+      input.close();
+      return new String(bytes.toByteArray(), Charset.defaultCharset());
+    } catch (IOException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  /**
+   * Scans, parses, resolves and optimizes a script the way Lox.run does,
+   * failing if it has errors.
+   */
+  static List<Stmt> resolve(String source) {
+    List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+    if (!Lox.hadError) new Resolver().resolve(statements);
+    if (Lox.hadError) {
+      throw new IllegalStateException("Workload failed to compile.");
+    }
+    new Optimizer().optimize(statements);
+    return statements;
+  }
+}
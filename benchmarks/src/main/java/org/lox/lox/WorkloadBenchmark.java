@@ -0,0 +1,71 @@
+package org.lox.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs a bench/ workload to completion on one engine. The script is parsed
+ * and resolved once per fork, so, like a long-running program, later runs
+ * see whatever profile the earlier ones left on the tree. Every run gets a
+ * fresh engine and globals.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkloadBenchmark {
+
+  @Param({"fib", "binary_trees", "methods", "strings", "arrays", "instances", "maps"})
+  public String script;
+
+  @Param({"tree", "closure", "vm"})
+  public String engine;
+
+  private List<Stmt> statements;
+  private PrintStream out;
+
+  @Setup
+  public void setUp() {
+    statements = Scripts.resolve(Scripts.source(script));
+    out = System.out;
+    System.setOut(Scripts.DISCARD);
+  }
+
+  @TearDown
+  public void tearDown() {
+    System.setOut(out);
+    if (Lox.hadRuntimeError) {
+      throw new IllegalStateException("Workload failed at runtime.");
+    }
+  }
+
+  @Benchmark
+  public void run() {
+    switch (engine) {
+      case "closure":
+        new Linker(new Interpreter()).interpret(statements);
+        break;
+      case "vm":
+        new VM(new Interpreter()).interpret(statements);
+        break;
+      default:
+        new Interpreter().interpret(statements);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.lox.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Times scripts on each execution engine, e.g.
+ * {@code java -cp target/classes org.lox.lox.Benchmark bench/*.lox}.
+ * Every run parses the script afresh and gets a new engine; the best of
+ * several runs is reported so JIT warm-up does not dominate.
+ */
+public class Benchmark {
+
+  private static final int RUNS = 5;
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.out.println("usage: benchmark [script...]");
+      return;
+    }
+
+    PrintStream out = System.out;
+    PrintStream discard = new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    });
+
+    out.printf("%-16s %10s %10s %10s %9s %9s%n",
+        "script", "tree", "closure", "vm", "closure/x", "vm/x");
+    for (String path : args) {
+      String source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+
+      System.setOut(discard);
+      double tree = best(source, statements -> new Interpreter().interpret(statements));
+      double closure = best(source, statements -> new Linker(new Interpreter()).interpret(statements));
+      double vm = best(source, statements -> new VM(new Interpreter()).interpret(statements));
+      System.setOut(out);
+
+      if (Lox.hadError) {
+        out.println(path + ": failed to compile");
+        Lox.hadError = false;
+        continue;
+      }
+      out.printf("%-16s %8.1fms %8.1fms %8.1fms %8.2fx %8.2fx%n",
+          Paths.get(path).getFileName(), tree, closure, vm, tree / closure, tree / vm);
+    }
+  }
+
+  private static double best(String source, Consumer<List<Stmt>> engine) {
+    double best = Double.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+      if (Lox.hadError) return 0;
+      new Resolver().resolve(statements);
+      if (Lox.hadError) return 0;
+      new Optimizer().optimize(statements);
+
+      long start = System.nanoTime();
+      engine.accept(statements);
+      best = Math.min(best, (System.nanoTime() - start) / 1e6);
+    }
+    return best;
+  }
+}
@@ -0,0 +1,51 @@
+package org.lox.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sequence of bytecode along with its constant pool. Every byte of code
+ * remembers the token it was compiled from so runtime errors can report a
+ * line the same way the tree-walker does.
+ */
+class Chunk {
+
+  byte[] code = new byte[64];
+  Token[] tokens = new Token[64];
+  int count = 0;
+  private final List<Object> constantList = new ArrayList<>();
+  Object[] constants = new Object[0];
+
+  void write(byte b, Token token) {
+    if (count == code.length) {
+      code = Arrays.copyOf(code, count * 2);
+      tokens = Arrays.copyOf(tokens, count * 2);
+    }
+    code[count] = b;
+    tokens[count] = token;
+    count++;
+  }
+
+  int addConstant(Object value) {
+    // Names and numbers are repeated a lot, share a slot when we can.
+    for (int i = 0; i < constantList.size(); i++) {
+      Object constant = constantList.get(i);
+      if (constant == value) return i;
+      if (constant instanceof String && constant.equals(value)) return i;
+      if (constant instanceof Double && constant.equals(value)) return i;
+    }
+    constantList.add(value);
+    return constantList.size() - 1;
+  }
+
+  /**
+   * Trims the code to size and freezes the constant pool once compilation
+   * of the owning function has finished.
+   */
+  void finish() {
+    code = Arrays.copyOf(code, count);
+    tokens = Arrays.copyOf(tokens, count);
+    constants = constantList.toArray();
+  }
+}
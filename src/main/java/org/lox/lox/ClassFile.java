@@ -0,0 +1,388 @@
+package org.lox.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a JVM class file writer for the JIT: a constant pool, a
+ * default constructor and methods with branches to labels. Classes are
+ * written as version 49 so they need no stack map frames.
+ */
+class ClassFile {
+
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_STATIC = 0x0008;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+
+  static final int ACONST_NULL = 0x01;
+  static final int ICONST_0 = 0x03;
+  static final int ICONST_1 = 0x04;
+  static final int DCONST_0 = 0x0e;
+  static final int DCONST_1 = 0x0f;
+  static final int BIPUSH = 0x10;
+  static final int SIPUSH = 0x11;
+  static final int LDC_W = 0x13;
+  static final int LDC2_W = 0x14;
+  static final int ILOAD = 0x15;
+  static final int DLOAD = 0x18;
+  static final int ALOAD = 0x19;
+  static final int AALOAD = 0x32;
+  static final int ISTORE = 0x36;
+  static final int DSTORE = 0x39;
+  static final int ASTORE = 0x3a;
+  static final int AASTORE = 0x53;
+  static final int POP = 0x57;
+  static final int POP2 = 0x58;
+  static final int DUP = 0x59;
+  static final int DUP2 = 0x5c;
+  static final int SWAP = 0x5f;
+  static final int DADD = 0x63;
+  static final int DSUB = 0x67;
+  static final int DMUL = 0x6b;
+  static final int DNEG = 0x77;
+  static final int IXOR = 0x82;
+  static final int DCMPL = 0x97;
+  static final int DCMPG = 0x98;
+  static final int IFEQ = 0x99;
+  static final int IFNE = 0x9a;
+  static final int IFLT = 0x9b;
+  static final int IFGE = 0x9c;
+  static final int IFGT = 0x9d;
+  static final int IFLE = 0x9e;
+  static final int GOTO = 0xa7;
+  static final int ARETURN = 0xb0;
+  static final int RETURN = 0xb1;
+  static final int GETSTATIC = 0xb2;
+  static final int INVOKEVIRTUAL = 0xb6;
+  static final int INVOKESPECIAL = 0xb7;
+  static final int INVOKESTATIC = 0xb8;
+  static final int ANEWARRAY = 0xbd;
+  static final int CHECKCAST = 0xc0;
+  static final int INSTANCEOF = 0xc1;
+  static final int IFNULL = 0xc6;
+
+  /** Thrown when a method outgrows what a class file can hold. */
+  static class TooLarge extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    TooLarge(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  /** A branch target within a method. */
+  static class Label {
+    private int offset = -1;
+    private final List<Integer> branches = new ArrayList<>();
+  }
+
+  /** A method under construction. */
+  class Method {
+    private final int access, name, descriptor;
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final List<Label> labels = new ArrayList<>();
+    private int maxLocals;
+    private int stack = 0;
+    private int maxStack = 0;
+
+    private Method(int access, String name, String descriptor, int maxLocals) {
+      this.access = access;
+      this.name = utf8(name);
+      this.descriptor = utf8(descriptor);
+      this.maxLocals = maxLocals;
+    }
+
+    Label label() {
+      Label label = new Label();
+      labels.add(label);
+      return label;
+    }
+
+    void reserveLocals(int count) {
+      maxLocals = Math.max(maxLocals, count);
+    }
+
+    /** An instruction without operands. */
+    void op(int opcode) {
+      code.write(opcode);
+      switch (opcode) {
+        case ACONST_NULL: case ICONST_0: case ICONST_1: case DUP:
+          grow(1);
+          break;
+        case DCONST_0: case DCONST_1: case DUP2:
+          grow(2);
+          break;
+        case POP: case AALOAD: case IXOR: case ARETURN:
+          grow(-1);
+          break;
+        case POP2: case DADD: case DSUB: case DMUL:
+          grow(-2);
+          break;
+        case AASTORE: case DCMPL: case DCMPG:
+          grow(-3);
+          break;
+      }
+    }
+
+    void pushInt(int value) {
+      if (value == 0 || value == 1) {
+        op(value == 0 ? ICONST_0 : ICONST_1);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        code.write(BIPUSH);
+        code.write(value);
+        grow(1);
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        code.write(SIPUSH);
+        writeShort(value);
+        grow(1);
+      } else {
+        code.write(LDC_W);
+        writeShort(constant(3, value));
+        grow(1);
+      }
+    }
+
+    void pushDouble(double value) {
+      if (Double.doubleToRawLongBits(value) == 0L) {
+        op(DCONST_0);
+      } else if (value == 1.0) {
+        op(DCONST_1);
+      } else {
+        code.write(LDC2_W);
+        writeShort(doubleConstant(value));
+        grow(2);
+      }
+    }
+
+    void load(int opcode, int local) {
+      checkLocal(local);
+      code.write(opcode);
+      code.write(local);
+      grow(opcode == DLOAD ? 2 : 1);
+      reserveLocals(local + (opcode == DLOAD ? 2 : 1));
+    }
+
+    void store(int opcode, int local) {
+      checkLocal(local);
+      code.write(opcode);
+      code.write(local);
+      grow(opcode == DSTORE ? -2 : -1);
+      reserveLocals(local + (opcode == DSTORE ? 2 : 1));
+    }
+
+    /** CHECKCAST, INSTANCEOF or ANEWARRAY. */
+    void type(int opcode, String className) {
+      code.write(opcode);
+      writeShort(classRef(className));
+    }
+
+    void getStatic(String owner, String name, String descriptor) {
+      code.write(GETSTATIC);
+      writeShort(member(9, owner, name, descriptor));
+      grow(descriptor.equals("D") || descriptor.equals("J") ? 2 : 1);
+    }
+
+    void invoke(int opcode, String owner, String name, String descriptor) {
+      code.write(opcode);
+      writeShort(member(10, owner, name, descriptor));
+
+      int size = opcode == INVOKESTATIC ? 0 : -1;
+      int i = 1;
+      while (descriptor.charAt(i) != ')') {
+        char c = descriptor.charAt(i);
+        size -= c == 'D' || c == 'J' ? 2 : 1;
+        while (descriptor.charAt(i) == '[') i++;
+        i = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+      }
+      char result = descriptor.charAt(i + 1);
+      size += result == 'V' ? 0 : result == 'D' || result == 'J' ? 2 : 1;
+      grow(size);
+    }
+
+    void jump(int opcode, Label label) {
+      label.branches.add(code.size());
+      code.write(opcode);
+      writeShort(0);
+      if (opcode != GOTO) grow(-1);
+    }
+
+    void mark(Label label) {
+      label.offset = code.size();
+    }
+
+    private void checkLocal(int local) {
+      if (local > 0xfe) throw new TooLarge("Too many locals.");
+    }
+
+    private void grow(int delta) {
+      stack += delta;
+      maxStack = Math.max(maxStack, stack);
+    }
+
+    private void writeShort(int value) {
+      code.write(value >> 8);
+      code.write(value);
+    }
+  }
+
+  private final String name;
+  private final String superName;
+  private final String[] interfaces;
+  private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+  private final Map<String, Integer> constants = new HashMap<>();
+  private final List<Method> methods = new ArrayList<>();
+  private int poolCount = 1;
+
+  ClassFile(String name, String superName, String... interfaces) {
+    this.name = name;
+    this.superName = superName;
+    this.interfaces = interfaces;
+
+    Method init = method(ACC_PUBLIC, "<init>", "()V", 1);
+    init.load(ALOAD, 0);
+    init.invoke(INVOKESPECIAL, superName, "<init>", "()V");
+    init.op(RETURN);
+  }
+
+  Method method(int access, String name, String descriptor, int parameterSlots) {
+    Method method = new Method(access, name, descriptor, parameterSlots);
+    methods.add(method);
+    return method;
+  }
+
+  byte[] toByteArray() {
+    int thisClass = classRef(name);
+    int superClass = classRef(superName);
+    int[] interfaceRefs = new int[interfaces.length];
+    for (int i = 0; i < interfaces.length; i++) {
+      interfaceRefs[i] = classRef(interfaces[i]);
+    }
+    int codeName = utf8("Code");
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      out.writeShort(49);
+      out.writeShort(poolCount);
+      pool.writeTo(out);
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(interfaceRefs.length);
+      for (int ref : interfaceRefs) out.writeShort(ref);
+      out.writeShort(0);
+
+      out.writeShort(methods.size());
+      for (Method method : methods) {
+        byte[] code = patch(method);
+        out.writeShort(method.access);
+        out.writeShort(method.name);
+        out.writeShort(method.descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(method.maxStack);
+        out.writeShort(method.maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        out.writeShort(0);
+      }
+      out.writeShort(0);
+      return bytes.toByteArray();
+    } catch (IOException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  /** Fills in the branch offsets once every label has been placed. */
+  private byte[] patch(Method method) {
+    byte[] code = method.code.toByteArray();
+    if (code.length > 0xffff) {
+      throw new TooLarge("Method too large.");
+    }
+    for (Label label : method.labels) {
+      for (int branch : label.branches) {
+        int offset = label.offset - branch;
+        if (offset != (short) offset) {
+          throw new TooLarge("Branch too far.");
+        }
+        code[branch + 1] = (byte) (offset >> 8);
+        code[branch + 2] = (byte) offset;
+      }
+    }
+    return code;
+  }
+
+  private int utf8(String value) {
+    Integer index = constants.get("U" + value);
+    if (index != null) return index;
+    try {
+      DataOutputStream out = new DataOutputStream(pool);
+      out.writeByte(1);
+      out.writeUTF(value);
+    } catch (IOException error) {
+      throw new IllegalStateException(error);
+    }
+    constants.put("U" + value, poolCount);
+    return poolCount++;
+  }
+
+  private int classRef(String className) {
+    return entry("C" + className, 7, utf8(className), -1);
+  }
+
+  private int constant(int tag, int value) {
+    return entry("I" + value, tag, value >>> 16, value & 0xffff);
+  }
+
+  private int doubleConstant(double value) {
+    String key = "D" + Double.doubleToRawLongBits(value);
+    Integer index = constants.get(key);
+    if (index != null) return index;
+    long bits = Double.doubleToRawLongBits(value);
+    try {
+      DataOutputStream out = new DataOutputStream(pool);
+      out.writeByte(6);
+      out.writeLong(bits);
+    } catch (IOException error) {
+      throw new IllegalStateException(error);
+    }
+    constants.put(key, poolCount);
+    int result = poolCount;
+    // Doubles take two constant pool entries.
+    poolCount += 2;
+    return result;
+  }
+
+  private int member(int tag, String owner, String name, String descriptor) {
+    int owningClass = classRef(owner);
+    int nameAndType = entry("N" + name + ":" + descriptor, 12,
+        utf8(name), utf8(descriptor));
+    return entry("M" + tag + owner + "." + name + ":" + descriptor, tag,
+        owningClass, nameAndType);
+  }
+
+  /** An entry made of a tag and one or two u2 fields. */
+  private int entry(String key, int tag, int first, int second) {
+    Integer index = constants.get(key);
+    if (index != null) return index;
+    pool.write(tag);
+    pool.write(first >> 8);
+    pool.write(first);
+    if (second != -1) {
+      pool.write(second >> 8);
+      pool.write(second);
+    }
+    constants.put(key, poolCount);
+    return poolCount++;
+  }
+}
@@ -0,0 +1,25 @@
+package org.lox.lox;
+
+/**
+ * The compiled form of a function body (or of a whole script). This is the
+ * prototype shared by every closure created from the same declaration.
+ */
+class CompiledFunction {
+
+  final Stmt.Function declaration;
+  final Chunk chunk = new Chunk();
+  final boolean isInitializer;
+  int arity = 0;
+  int upvalueCount = 0;
+
+  CompiledFunction(Stmt.Function declaration, boolean isInitializer) {
+    this.declaration = declaration;
+    this.isInitializer = isInitializer;
+  }
+
+  @Override
+  public String toString() {
+    if (declaration == null) return "<script>";
+    return "<fn " + declaration.name.lexeme + ">";
+  }
+}
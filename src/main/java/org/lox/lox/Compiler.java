@@ -0,0 +1,614 @@
+package org.lox.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles a resolved syntax tree into bytecode for the {@link VM}. There is
+ * one Compiler per function being compiled; nested function declarations
+ * get their own Compiler that points back to the enclosing one so that
+ * captured variables can be turned into upvalues.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+  private enum FunctionType {
+    SCRIPT,
+    FUNCTION,
+    METHOD,
+    INITIALIZER
+  }
+
+  private static class Local {
+    final String name;
+    final int depth;
+    boolean isCaptured = false;
+
+    Local(String name, int depth) {
+      this.name = name;
+      this.depth = depth;
+    }
+  }
+
+  private static class UpvalueRef {
+    final int index;
+    final boolean isLocal;
+
+    UpvalueRef(int index, boolean isLocal) {
+      this.index = index;
+      this.isLocal = isLocal;
+    }
+  }
+
+  private static final int MAX_SLOTS = 256;
+
+  private final VM vm;
+  private final Compiler enclosing;
+  private final CompiledFunction function;
+  private final FunctionType type;
+  private final List<Local> locals = new ArrayList<>();
+  private final List<UpvalueRef> upvalues = new ArrayList<>();
+  private int scopeDepth = 0;
+  private Token token;
+
+  private Compiler(VM vm, Compiler enclosing, CompiledFunction function,
+                   FunctionType type, Token token) {
+    this.vm = vm;
+    this.enclosing = enclosing;
+    this.function = function;
+    this.type = type;
+    this.token = token;
+
+    // Slot zero holds the receiver in methods and the callee otherwise.
+    String slotZero = type == FunctionType.METHOD ||
+        type == FunctionType.INITIALIZER ? "this" : "";
+    locals.add(new Local(slotZero, 0));
+  }
+
+  static CompiledFunction compile(List<Stmt> statements, VM vm) {
+    CompiledFunction script = new CompiledFunction(null, false);
+    Compiler compiler = new Compiler(vm, null, script, FunctionType.SCRIPT,
+        new Token(TokenType.EOF, "", null, 1));
+    for (Stmt statement : statements) {
+      compiler.compile(statement);
+    }
+    compiler.emit(OpCode.NIL);
+    compiler.emit(OpCode.RETURN);
+    script.chunk.finish();
+    return script;
+  }
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  private CompiledFunction function(Stmt.Function declaration, FunctionType type) {
+    CompiledFunction compiled = new CompiledFunction(declaration,
+        type == FunctionType.INITIALIZER);
+    Compiler compiler = new Compiler(vm, this, compiled, type, declaration.name);
+
+    compiler.beginScope();
+    if (declaration.parameters != null) {
+      compiled.arity = declaration.parameters.size();
+      for (Token param : declaration.parameters) {
+        compiler.addLocal(param);
+      }
+    }
+    for (Stmt statement : declaration.body) {
+      compiler.compile(statement);
+    }
+    compiler.emitReturn();
+
+    compiled.upvalueCount = compiler.upvalues.size();
+    compiled.chunk.finish();
+
+    emit(OpCode.CLOSURE);
+    emitShort(makeConstant(compiled));
+    for (UpvalueRef upvalue : compiler.upvalues) {
+      emit(upvalue.isLocal ? (byte) 1 : (byte) 0);
+      emit((byte) upvalue.index);
+    }
+    return compiled;
+  }
+
+  private void emit(byte b) {
+    function.chunk.write(b, token);
+  }
+
+  private void emit(byte op, byte operand) {
+    emit(op);
+    emit(operand);
+  }
+
+  private void emitShort(int value) {
+    emit((byte) ((value >> 8) & 0xff));
+    emit((byte) (value & 0xff));
+  }
+
+  private void emitConstant(Object value) {
+    emit(OpCode.CONSTANT);
+    emitShort(makeConstant(value));
+  }
+
+  private int makeConstant(Object value) {
+    int constant = function.chunk.addConstant(value);
+    if (constant > 0xffff) {
+      Lox.error(token, "Too many constants in one function.");
+    }
+    return constant;
+  }
+
+  private void emitReturn() {
+    if (type == FunctionType.INITIALIZER) {
+      emit(OpCode.GET_LOCAL, (byte) 0);
+    } else {
+      emit(OpCode.NIL);
+    }
+    emit(OpCode.RETURN);
+  }
+
+  private int emitJump(byte op) {
+    emit(op);
+    emit((byte) 0xff);
+    emit((byte) 0xff);
+    return function.chunk.count - 2;
+  }
+
+  private void patchJump(int offset) {
+    // -2 to adjust for the bytecode of the jump offset itself.
+    int jump = function.chunk.count - offset - 2;
+    if (jump > 0xffff) {
+      Lox.error(token, "Too much code to jump over.");
+    }
+    function.chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+    function.chunk.code[offset + 1] = (byte) (jump & 0xff);
+  }
+
+  private void emitLoop(int loopStart) {
+    emit(OpCode.LOOP);
+    int offset = function.chunk.count - loopStart + 2;
+    if (offset > 0xffff) Lox.error(token, "Loop body too large.");
+    emitShort(offset);
+  }
+
+  private void beginScope() {
+    scopeDepth++;
+  }
+
+  private void endScope() {
+    scopeDepth--;
+    while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > scopeDepth) {
+      if (locals.get(locals.size() - 1).isCaptured) {
+        emit(OpCode.CLOSE_UPVALUE);
+      } else {
+        emit(OpCode.POP);
+      }
+      locals.remove(locals.size() - 1);
+    }
+  }
+
+  private void addLocal(Token name) {
+    if (locals.size() == MAX_SLOTS) {
+      Lox.error(name, "Too many local variables in function.");
+      return;
+    }
+    locals.add(new Local(name.lexeme, scopeDepth));
+  }
+
+  private int resolveLocal(String name) {
+    for (int i = locals.size() - 1; i >= 0; i--) {
+      if (locals.get(i).name.equals(name)) return i;
+    }
+    return -1;
+  }
+
+  private int resolveUpvalue(String name) {
+    if (enclosing == null) return -1;
+
+    int local = enclosing.resolveLocal(name);
+    if (local != -1) {
+      enclosing.locals.get(local).isCaptured = true;
+      return addUpvalue(local, true);
+    }
+
+    int upvalue = enclosing.resolveUpvalue(name);
+    if (upvalue != -1) {
+      return addUpvalue(upvalue, false);
+    }
+
+    return -1;
+  }
+
+  private int addUpvalue(int index, boolean isLocal) {
+    for (int i = 0; i < upvalues.size(); i++) {
+      UpvalueRef upvalue = upvalues.get(i);
+      if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+    }
+
+    if (upvalues.size() == MAX_SLOTS) {
+      Lox.error(token, "Too many closure variables in function.");
+      return 0;
+    }
+
+    upvalues.add(new UpvalueRef(index, isLocal));
+    return upvalues.size() - 1;
+  }
+
+  private void namedVariable(Token name, boolean assign) {
+    byte getOp, setOp;
+    int arg = resolveLocal(name.lexeme);
+    if (arg != -1) {
+      getOp = OpCode.GET_LOCAL;
+      setOp = OpCode.SET_LOCAL;
+    } else if ((arg = resolveUpvalue(name.lexeme)) != -1) {
+      getOp = OpCode.GET_UPVALUE;
+      setOp = OpCode.SET_UPVALUE;
+    } else {
+      emit(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL);
+      emitShort(makeConstant(vm.global(name.lexeme)));
+      return;
+    }
+    emit(assign ? setOp : getOp, (byte) arg);
+  }
+
+  /**
+   * Declares a variable in the current scope. For locals the value is
+   * whatever is on top of the stack; for globals it is popped into the
+   * global table.
+   */
+  private void defineVariable(Token name) {
+    if (scopeDepth > 0) {
+      addLocal(name);
+      return;
+    }
+    emit(OpCode.DEFINE_GLOBAL);
+    emitShort(makeConstant(vm.global(name.lexeme)));
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    for (Stmt statement : stmt.statements) {
+      compile(statement);
+    }
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    token = stmt.name;
+
+    // The class is visible (as nil) while its methods are being created.
+    emit(OpCode.NIL);
+    defineVariable(stmt.name);
+
+    if (stmt.superclass != null) {
+      compile(stmt.superclass);
+      beginScope();
+      addLocal(new Token(TokenType.SUPER, "super", null, stmt.name.line));
+    }
+
+    for (Stmt.Function method : stmt.methods) {
+      FunctionType type = method.name.lexeme.equals("init") ?
+          FunctionType.INITIALIZER : FunctionType.METHOD;
+      function(method, type);
+    }
+    for (Stmt.Function classMethod : stmt.classMethods) {
+      function(classMethod, FunctionType.METHOD);
+    }
+
+    token = stmt.name;
+    emit(OpCode.CLASS);
+    emitShort(makeConstant(stmt.name));
+    emit(stmt.superclass != null ? (byte) 1 : (byte) 0);
+    emitShort(stmt.methods.size());
+    emitShort(stmt.classMethods.size());
+
+    namedVariable(stmt.name, true);
+    emit(OpCode.POP);
+
+    if (stmt.superclass != null) endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    emit(OpCode.POP);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    token = stmt.name;
+    if (scopeDepth > 0) {
+      // Declare the local first so the body can refer to itself.
+      addLocal(stmt.name);
+      function(stmt, FunctionType.FUNCTION);
+    } else {
+      function(stmt, FunctionType.FUNCTION);
+      token = stmt.name;
+      defineVariable(stmt.name);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    compile(stmt.condition);
+
+    int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(stmt.thenBranch);
+
+    int elseJump = emitJump(OpCode.JUMP);
+    patchJump(thenJump);
+    emit(OpCode.POP);
+    if (stmt.elseBranch != null) compile(stmt.elseBranch);
+    patchJump(elseJump);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int loopStart = function.chunk.count;
+    compile(stmt.condition);
+
+    int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(stmt.body);
+    emitLoop(loopStart);
+
+    patchJump(exitJump);
+    emit(OpCode.POP);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    token = stmt.keyword;
+    if (stmt.value != null) {
+      compile(stmt.value);
+      token = stmt.keyword;
+      emit(OpCode.RETURN);
+    } else {
+      // Only falling off the end of an initializer returns this.
+      emit(OpCode.NIL);
+      emit(OpCode.RETURN);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) {
+      compile(stmt.initializer);
+    } else {
+      emit(OpCode.NIL);
+    }
+    token = stmt.name;
+    defineVariable(stmt.name);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.value);
+    token = expr.name;
+    namedVariable(expr.name, true);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    if (expr.operator.type == TokenType.COMMA) {
+      // Discard the left, continue with the right.
+      compile(expr.left);
+      emit(OpCode.POP);
+      compile(expr.right);
+      return null;
+    }
+
+    compile(expr.left);
+    compile(expr.right);
+    token = expr.operator;
+
+    switch (expr.operator.type) {
+      case GREATER: emit(OpCode.GREATER); break;
+      case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+      case LESS: emit(OpCode.LESS); break;
+      case LESS_EQUAL: emit(OpCode.LESS_EQUAL); break;
+      case MINUS: emit(OpCode.SUBTRACT); break;
+      case PLUS: emit(OpCode.ADD); break;
+      case SLASH: emit(OpCode.DIVIDE); break;
+      case STAR: emit(OpCode.MULTIPLY); break;
+      case EXPONENT: emit(OpCode.EXPONENT); break;
+      case MODULO: emit(OpCode.MODULO); break;
+      case BANG_EQUAL: emit(OpCode.NOT_EQUAL); break;
+      case EQUAL_EQUAL: emit(OpCode.EQUAL); break;
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    if (expr.callee instanceof Expr.Get) {
+      // obj.name(args) leaves obj in the callee's slot, where a method
+      // finds it as 'this'.
+      Expr.Get get = (Expr.Get) expr.callee;
+      compile(get.object);
+      for (Expr argument : expr.arguments) {
+        compile(argument);
+      }
+      token = expr.paren;
+      emit(OpCode.INVOKE);
+      emitShort(makeConstant(get.name));
+      emitShort(makeConstant(get.cache));
+      emit((byte) expr.arguments.size());
+      return null;
+    }
+
+    compile(expr.callee);
+    for (Expr argument : expr.arguments) {
+      compile(argument);
+    }
+    token = expr.paren;
+    emit(OpCode.CALL, (byte) expr.arguments.size());
+    return null;
+  }
+
+  @Override
+  public Void visitIndexGetExpr(Expr.IndexGet expr) {
+    compile(expr.indexee);
+    compile(expr.index);
+    token = expr.bracket;
+    emit(OpCode.INDEX_GET);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexSetExpr(Expr.IndexSet expr) {
+    compile(expr.indexee);
+    compile(expr.index);
+    compile(expr.value);
+    token = expr.bracket;
+    emit(OpCode.INDEX_SET);
+    return null;
+  }
+
+  @Override
+  public Void visitArrayExpr(Expr.Array expr) {
+    for (Expr element : expr.elements) {
+      compile(element);
+    }
+    token = expr.bracket;
+    emit(OpCode.ARRAY);
+    emitShort(expr.elements.size());
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    compile(expr.object);
+    token = expr.name;
+    emit(OpCode.GET_PROPERTY);
+    emitShort(makeConstant(expr.name));
+    emitShort(makeConstant(expr.cache));
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      emit(OpCode.NIL);
+    } else if (expr.value == Boolean.TRUE) {
+      emit(OpCode.TRUE);
+    } else if (expr.value == Boolean.FALSE) {
+      emit(OpCode.FALSE);
+    } else {
+      emitConstant(expr.value);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    compile(expr.left);
+    token = expr.operator;
+
+    if (expr.operator.type == TokenType.OR) {
+      int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+      int endJump = emitJump(OpCode.JUMP);
+      patchJump(elseJump);
+      emit(OpCode.POP);
+      compile(expr.right);
+      patchJump(endJump);
+    } else {
+      int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+      emit(OpCode.POP);
+      compile(expr.right);
+      patchJump(endJump);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    compile(expr.object);
+    compile(expr.value);
+    token = expr.name;
+    emit(OpCode.SET_PROPERTY);
+    emitShort(makeConstant(expr.name));
+    emitShort(makeConstant(expr.cache));
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    token = expr.keyword;
+    namedVariable(new Token(TokenType.THIS, "this", null, expr.keyword.line), false);
+    namedVariable(expr.keyword, false);
+    token = expr.method;
+    emit(OpCode.GET_SUPER);
+    emitShort(makeConstant(expr.method));
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    token = expr.keyword;
+    namedVariable(expr.keyword, false);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    switch (expr.operator.type) {
+      case BANG:
+        compile(expr.right);
+        token = expr.operator;
+        emit(OpCode.NOT);
+        break;
+      case MINUS:
+        compile(expr.right);
+        token = expr.operator;
+        emit(OpCode.NEGATE);
+        break;
+      case PLUS_PLUS: case MINUS_MINUS:
+        if (!(expr.right instanceof Expr.Variable)) {
+          compile(expr.right);
+          token = expr.operator;
+          emit(OpCode.ERROR);
+          emitShort(makeConstant("Operand of increment op must be a variable."));
+          return null;
+        }
+        token = expr.operator;
+        Token name = ((Expr.Variable) expr.right).name;
+        namedVariable(name, false);
+        if (expr.postfix) emit(OpCode.DUP);
+        emit(expr.operator.type == TokenType.PLUS_PLUS ?
+            OpCode.INCREMENT : OpCode.DECREMENT);
+        namedVariable(name, true);
+        if (expr.postfix) emit(OpCode.POP);
+        break;
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    token = expr.name;
+    namedVariable(expr.name, false);
+    return null;
+  }
+}
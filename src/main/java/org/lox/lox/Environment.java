@@ -1,52 +1,80 @@
 package org.lox.lox;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * A runtime scope. The global scope is keyed by symbol since globals are
+ * late bound. Every other scope is a fixed array of slots whose indexes
+ * the Resolver worked out ahead of time, filled in declaration order.
+ */
 public class Environment {
 
   final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<>();
+  private final SymbolMap<Object> values;
+  final Object[] slots;
+  private int count = 0;
 
   public Environment() {
     enclosing = null;
+    values = new SymbolMap<>();
+    slots = null;
   }
 
-  public Environment(Environment enclosing) {
+  public Environment(Environment enclosing, int slotCount) {
     this.enclosing = enclosing;
+    values = null;
+    slots = new Object[slotCount];
+  }
+
+  /**
+   * Defines the next variable in this scope and returns its slot, or -1 in
+   * the global scope where variables are looked up by name.
+   */
+  int define(String name, Object value) {
+    if (slots == null) {
+      values.put(Symbols.intern(name), value);
+      return -1;
+    }
+    slots[count] = value;
+    return count++;
+  }
+
+  /** How many variables have been defined so far. */
+  int size() {
+    return count;
   }
 
-  void define(String name, Object value) {
-    values.put(name, value);
+  /**
+   * Forgets the variables defined after there were size of them, so a
+   * flattened block can define its own in the same slots next time round.
+   */
+  void truncate(int size) {
+    count = size;
+  }
+
+  /** Empties the scope so a tail call can fill it in again. */
+  void clear() {
+    count = 0;
   }
 
   Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
+    if (values.containsKey(name.symbol)) {
+      return values.get(name.symbol);
     }
 
-    if (enclosing != null) return enclosing.get(name);
-
     throw new RuntimeError(name,
             "Undefined variable '" + name.lexeme + "'.");
   }
 
-  Object getAt(int distance, String name) {
-    return ancestor(distance).values.get(name);
+  Object getAt(int distance, int slot) {
+    return ancestor(distance).slots[slot];
   }
 
-  void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+  void assignAt(int distance, int slot, Object value) {
+    ancestor(distance).slots[slot] = value;
   }
 
   void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
-    }
-
-    if (enclosing != null) {
-      enclosing.assign(name, value);
+    if (values.containsKey(name.symbol)) {
+      values.put(name.symbol, value);
       return;
     }
 
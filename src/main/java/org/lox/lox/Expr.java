@@ -32,6 +32,9 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+
+    int depth = -1;
+    int slot;
   }
   static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -47,6 +50,8 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+
+    TypeFeedback feedback = TypeFeedback.UNINITIALIZED;
   }
   static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -120,6 +125,8 @@ abstract class Expr {
 
     final Expr object;
     final Token name;
+
+    InlineCache cache = new InlineCache();
   }
   static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -172,6 +179,8 @@ abstract class Expr {
     final Expr object;
     final Token name;
     final Expr value;
+
+    InlineCache cache = new InlineCache();
   }
   static class Super extends Expr {
     Super(Token keyword, Token method) {
@@ -185,6 +194,9 @@ abstract class Expr {
 
     final Token keyword;
     final Token method;
+
+    int depth = -1;
+    int slot;
   }
   static class This extends Expr {
     This(Token keyword) {
@@ -196,6 +208,9 @@ abstract class Expr {
     }
 
     final Token keyword;
+
+    int depth = -1;
+    int slot;
   }
   static class Unary extends Expr {
     Unary(Token operator, Expr right, Boolean postfix) {
@@ -211,6 +226,8 @@ abstract class Expr {
     final Token operator;
     final Expr right;
     final Boolean postfix;
+
+    TypeFeedback feedback = TypeFeedback.UNINITIALIZED;
   }
   static class Variable extends Expr {
     Variable(Token name) {
@@ -222,6 +239,9 @@ abstract class Expr {
     }
 
     final Token name;
+
+    int depth = -1;
+    int slot;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,15 @@
+package org.lox.lox;
+
+/**
+ * A global variable. Compiled and linked code refer to the cell directly,
+ * so a global access costs a field load rather than a hash lookup.
+ */
+class Global {
+  final String name;
+  Object value;
+  boolean defined = false;
+
+  Global(String name) {
+    this.name = name;
+  }
+}
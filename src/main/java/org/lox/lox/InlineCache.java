@@ -0,0 +1,101 @@
+package org.lox.lox;
+
+/**
+ * The cache at one property get or set site. Each entry maps a receiver's
+ * shape to where the property was found: the index of a field, or the method
+ * the class resolved it to. A set that adds a field also remembers the shape
+ * it leads to. Shapes belong to a single class, so a hit needs no further
+ * checks.
+ *
+ * A site that has seen more than MAX_ENTRIES shapes is megamorphic and stops
+ * caching.
+ */
+class InlineCache {
+
+  static final int MAX_ENTRIES = 4;
+
+  private final Shape[] shapes = new Shape[MAX_ENTRIES];
+  // The field index for each shape, or -1 if the property is a method.
+  private final int[] indexes = new int[MAX_ENTRIES];
+  private final LoxFunction[] methods = new LoxFunction[MAX_ENTRIES];
+  private final Shape[] transitions = new Shape[MAX_ENTRIES];
+  private int count = 0;
+  private boolean megamorphic = false;
+
+  /** Does what {@link LoxInstance#get} does. */
+  Object get(LoxInstance instance, Token name) {
+    if (megamorphic) return instance.get(name);
+
+    Shape shape = instance.shape;
+    for (int i = 0; i < count; i++) {
+      if (shapes[i] == shape) {
+        int index = indexes[i];
+        return index != -1 ? instance.values[index] : methods[i].bind(instance);
+      }
+    }
+
+    Object result = instance.get(name);
+    int index = shape.indexOf(name.symbol);
+    add(shape, index, index == -1 ? instance.klass.lookUpMethod(name.symbol) : null, null);
+    return result;
+  }
+
+  /**
+   * The unbound method a call site's receiver resolves the name to, or null
+   * if the name is a field, a getter or not there at all. Lets a call run
+   * the method on the receiver without binding it first.
+   */
+  LoxFunction method(LoxInstance instance, Token name) {
+    Shape shape = instance.shape;
+    if (!megamorphic) {
+      for (int i = 0; i < count; i++) {
+        if (shapes[i] == shape) return callable(methods[i]);
+      }
+    }
+
+    int index = shape.indexOf(name.symbol);
+    LoxFunction method = index == -1 && instance.klass != null
+        ? instance.klass.lookUpMethod(name.symbol) : null;
+    if (!megamorphic && (index != -1 || method != null)) {
+      add(shape, index, method, null);
+    }
+    return callable(method);
+  }
+
+  private static LoxFunction callable(LoxFunction method) {
+    return method != null && !method.isGetter() ? method : null;
+  }
+
+  /** Does what {@link LoxInstance#set} does. */
+  void set(LoxInstance instance, Token name, Object value) {
+    if (megamorphic) {
+      instance.set(name, value);
+      return;
+    }
+
+    Shape shape = instance.shape;
+    for (int i = 0; i < count; i++) {
+      if (shapes[i] == shape) {
+        if (transitions[i] != null) instance.transition(transitions[i]);
+        instance.values[indexes[i]] = value;
+        return;
+      }
+    }
+
+    instance.set(name, value);
+    Shape next = instance.shape;
+    add(shape, next.indexOf(name.symbol), null, next != shape ? next : null);
+  }
+
+  private void add(Shape shape, int index, LoxFunction method, Shape transition) {
+    if (count == MAX_ENTRIES) {
+      megamorphic = true;
+      return;
+    }
+    shapes[count] = shape;
+    indexes[count] = index;
+    methods[count] = method;
+    transitions[count] = transition;
+    count++;
+  }
+}
@@ -1,23 +1,48 @@
 package org.lox.lox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.StringJoiner;
 
 import static org.lox.lox.TokenType.*;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-  final Environment globals = new Environment();
-  private Environment environment = globals;
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  final Environment globals;
+  private Environment environment;
+  // Whether this interpreter runs callbacks on a worker thread for a
+  // parallel array operation, alongside others sharing its globals.
+  final boolean worker;
+  // Set by a return statement. Blocks and loops stop as soon as they see
+  // it, and the call that ran the function body takes the value.
+  private boolean returning = false;
+  private Object returnValue;
+
+  /**
+   * Returned in place of a value by a body that ended in a tail call to an
+   * interpreted function. The call waits in tailFunction, tailReceiver and
+   * tailArguments for LoxFunction.call to make it once the body is gone
+   * from the Java stack.
+   */
+  static final Object TAIL_CALL = new Object();
+  LoxFunction tailFunction;
+  LoxInstance tailReceiver;
+  List<Object> tailArguments;
 
   public Interpreter() {
+    globals = new Environment();
+    environment = globals;
+    worker = false;
     NativeFunctions.define(globals);
   }
 
+  /** An interpreter for a worker thread, sharing the main one's globals. */
+  Interpreter(Interpreter main) {
+    globals = main.globals;
+    environment = globals;
+    worker = true;
+  }
+
   void interpret(List<Stmt> statements) {
     try {
       for (Stmt stmt : statements) {
@@ -36,22 +61,45 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     stmt.accept(this);
   }
 
-  void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
-  }
-
   void executeBlock(List<Stmt> statements, Environment environment) {
     Environment previous = this.environment;
     try {
       this.environment = environment;
       for (Stmt statement : statements) {
         execute(statement);
+        if (returning) break;
       }
     } finally {
       this.environment = previous;
     }
   }
 
+  /**
+   * Runs a function body. Returns true if it ended in a return statement,
+   * whose value {@link #takeReturnValue} then hands over.
+   */
+  boolean executeBody(List<Stmt> body, Environment environment) {
+    // executeBlock written out, one frame fewer per call.
+    Environment previous = this.environment;
+    try {
+      this.environment = environment;
+      for (Stmt statement : body) {
+        execute(statement);
+        if (returning) break;
+      }
+    } finally {
+      this.environment = previous;
+    }
+    return returning;
+  }
+
+  Object takeReturnValue() {
+    Object value = returnValue;
+    returning = false;
+    returnValue = null;
+    return value;
+  }
+
   @Override
   public Void visitIfStmt(Stmt.If stmt) {
     if (isTruthy(evaluate(stmt.condition))) {
@@ -66,19 +114,31 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Void visitWhileStmt(Stmt.While stmt) {
     while (isTruthy(evaluate(stmt.condition))) {
       execute(stmt.body);
+      if (returning) break;
     }
     return null;
   }
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(environment));
+    if (stmt.flat) {
+      // No closure can see this block's variables, so they live in the
+      // current Environment's spare slots.
+      int size = environment.size();
+      for (Stmt statement : stmt.statements) {
+        execute(statement);
+        if (returning) break;
+      }
+      environment.truncate(size);
+      return null;
+    }
+    executeBlock(stmt.statements, new Environment(environment, stmt.slotCount));
     return null;
   }
 
   @Override
   public Void visitClassStmt(Stmt.Class stmt) {
-    environment.define(stmt.name.lexeme, null);
+    int slot = environment.define(stmt.name.lexeme, null);
 
     Object superclass = null;
     if (stmt.superclass != null) {
@@ -87,16 +147,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(stmt.name, "Superclass must be a class");
       }
 
-      environment = new Environment(environment);
+      environment = new Environment(environment, 1);
       environment.define("super", superclass);
     }
 
-    Map<String, LoxFunction> classMethods = new HashMap<>(),
-      methods = new HashMap<>();
+    SymbolMap<LoxFunction> classMethods = new SymbolMap<>(),
+      methods = new SymbolMap<>();
 
     for (Stmt.Function staticMethod : stmt.classMethods) {
       LoxFunction function = new LoxFunction(staticMethod, environment, false);
-      classMethods.put(staticMethod.name.lexeme, function);
+      classMethods.put(staticMethod.name.symbol, function);
     }
 
     LoxClass metaClass = new LoxClass(null, ((LoxClass) superclass),
@@ -104,8 +164,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     for (Stmt.Function method : stmt.methods) {
       LoxFunction function = new LoxFunction(method, environment,
-          method.name.lexeme.equals("init"));
-      methods.put(method.name.lexeme, function);
+          method.name.symbol == Symbols.INIT);
+      methods.put(method.name.symbol, function);
     }
 
     LoxClass klass = new LoxClass(metaClass, ((LoxClass) superclass), stmt.name.lexeme, methods);
@@ -113,7 +173,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       environment = environment.enclosing;
     }
 
-    environment.assign(stmt.name, klass);
+    if (slot == -1) {
+      environment.assign(stmt.name, klass);
+    } else {
+      environment.assignAt(0, slot, klass);
+    }
     return null;
   }
 
@@ -122,6 +186,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right);
 
+    // Once specialized, a node checks its operands with a single guard
+    // and only goes generic when that guard fails.
+    switch (expr.feedback) {
+      case NUMBERS:
+        if (left instanceof Double && right instanceof Double) {
+          return numberOperation(expr.operator, (double) left, (double) right);
+        }
+        expr.feedback = TypeFeedback.GENERIC;
+        break;
+      case STRINGS:
+        if (Rope.isString(left) && Rope.isString(right)) {
+          return Rope.concat((CharSequence) left, (CharSequence) right);
+        }
+        expr.feedback = TypeFeedback.GENERIC;
+        break;
+      case UNINITIALIZED:
+        expr.feedback = specialize(expr.operator.type, left, right);
+        break;
+    }
+
     switch (expr.operator.type) {
       case GREATER:
         checkNumberOperands(expr.operator, left, right);
@@ -136,6 +220,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         checkNumberOperands(expr.operator, left, right);
         return (double)left <= (double)right;
       case MINUS:
+        checkNumberOperand(expr.operator, left);
         checkNumberOperand(expr.operator, right);
         return (double)left - (double)right;
       case PLUS:
@@ -143,16 +228,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           return (double)left + (double)right;
         }
 
-        if (left instanceof String && right instanceof String) {
-          return (String)left + (String)right;
+        if (Rope.isString(left) && Rope.isString(right)) {
+          return Rope.concat((CharSequence)left, (CharSequence)right);
         }
 
-        if (left instanceof String && right instanceof Double) {
-          return (String)left + stringify(right);
+        if (Rope.isString(left) && right instanceof Double) {
+          return Rope.concat((CharSequence)left, stringify(right));
         }
 
-        if (left instanceof Double && right instanceof String) {
-          return stringify(left) + (String)right;
+        if (left instanceof Double && Rope.isString(right)) {
+          return Rope.concat(stringify(left), (CharSequence)right);
         }
 
         throw new RuntimeError(expr.operator,
@@ -169,7 +254,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return Math.pow((double)left, (double)right);
       case MODULO:
         checkNumberOperands(expr.operator, left, right);
-        return (double)left % (double)right;
+        return modulo((double)left, (double)right);
 
       case BANG_EQUAL: return !isEqual(left, right);
       case EQUAL_EQUAL: return isEqual(left, right);
@@ -182,44 +267,230 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  private static TypeFeedback specialize(TokenType operator, Object left, Object right) {
+    switch (operator) {
+      case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+      case MINUS: case SLASH: case STAR: case EXPONENT: case MODULO:
+        if (left instanceof Double && right instanceof Double) {
+          return TypeFeedback.NUMBERS;
+        }
+        break;
+      case PLUS:
+        if (left instanceof Double && right instanceof Double) {
+          return TypeFeedback.NUMBERS;
+        }
+        if (Rope.isString(left) && Rope.isString(right)) {
+          return TypeFeedback.STRINGS;
+        }
+        break;
+    }
+    return TypeFeedback.GENERIC;
+  }
+
+  private static Object numberOperation(Token operator, double left, double right) {
+    switch (operator.type) {
+      case GREATER: return left > right;
+      case GREATER_EQUAL: return left >= right;
+      case LESS: return left < right;
+      case LESS_EQUAL: return left <= right;
+      case MINUS: return left - right;
+      case PLUS: return left + right;
+      case STAR: return left * right;
+      case EXPONENT: return Math.pow(left, right);
+      case MODULO: return modulo(left, right);
+      case SLASH:
+        if (right == 0.0) throw new RuntimeError(operator, "division by zero.");
+        return left / right;
+    }
+
+    // unreachable
+    return null;
+  }
+
+  /**
+   * Calls to interpreted functions and methods are made here without
+   * further helpers, since the Java frames between one Lox call and the
+   * next limit how deep a script can recurse. The rest go through call()
+   * and invoke().
+   */
   @Override
   public Object visitCallExpr(Expr.Call expr) {
-    Object callee = evaluate(expr.callee);
-    List<Object> arguments = new ArrayList<>();
+    LoxFunction function;
+    LoxInstance receiver = null;
+    if (expr.callee instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get) expr.callee;
+      Object object = evaluate(get.object);
+      function = object instanceof LoxInstance
+          ? get.cache.method((LoxInstance) object, get.name) : null;
+      if (function == null || !direct(function, expr)) {
+        return invoke(expr, get, object, function, false);
+      }
+      receiver = (LoxInstance) object;
+    } else {
+      Object callee = evaluate(expr.callee);
+      if (!(callee instanceof LoxFunction) || !direct((LoxFunction) callee, expr)) {
+        return call(expr, callee, false);
+      }
+      function = (LoxFunction) callee;
+    }
+
+    Environment environment = function.frame(receiver);
     for (Expr argument : expr.arguments) {
-      arguments.add(evaluate(argument));
+      environment.define(null, evaluate(argument));
+    }
+    return function.run(this, environment);
+  }
+
+  /** A call in tail position, which may be left for the caller to make. */
+  private Object tailCall(Expr.Call expr) {
+    if (expr.callee instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get) expr.callee;
+      Object object = evaluate(get.object);
+      LoxFunction method = object instanceof LoxInstance
+          ? get.cache.method((LoxInstance) object, get.name) : null;
+      return invoke(expr, get, object, method, true);
+    }
+    return call(expr, evaluate(expr.callee), true);
+  }
+
+  /**
+   * A call of the form obj.name(args), given obj and the method name
+   * resolves to on it if obj is an instance. The method runs on obj
+   * directly; a bound method is only made when one is used as a value.
+   */
+  private Object invoke(Expr.Call expr, Expr.Get get, Object object, LoxFunction method,
+                        boolean tail) {
+    if (method != null) {
+      List<Object> arguments = evaluateArguments(expr);
+      checkArity(method, arguments.size(), expr.paren);
+      if (tail) return tailCall(method, (LoxInstance) object, arguments);
+      return method.callMethod(this, (LoxInstance) object, arguments);
+    }
+    if (object instanceof LoxNative) {
+      return invoke(expr, object, NativeMethod.of((LoxNative) object, get.name));
+    }
+
+    return call(expr, getProperty(get, object), tail);
+  }
+
+  /** Calls a method on a native value without binding it. */
+  private Object invoke(Expr.Call expr, Object receiver, NativeMethod<Object> method) {
+    int count = expr.arguments.size();
+    if (count > 3) {
+      Object[] arguments = new Object[count];
+      for (int i = 0; i < count; i++) {
+        arguments[i] = evaluate(expr.arguments.get(i));
+      }
+      method.checkArity(count, expr.paren);
+      return method.call(this, receiver, arguments);
+    }
+
+    Object a = count > 0 ? evaluate(expr.arguments.get(0)) : null;
+    Object b = count > 1 ? evaluate(expr.arguments.get(1)) : null;
+    Object c = count > 2 ? evaluate(expr.arguments.get(2)) : null;
+    method.checkArity(count, expr.paren);
+    switch (count) {
+      case 0: return method.call0(this, receiver);
+      case 1: return method.call1(this, receiver, a);
+      case 2: return method.call2(this, receiver, a, b);
+      default: return method.call3(this, receiver, a, b, c);
+    }
+  }
+
+  private Object call(Expr.Call expr, Object callee, boolean tail) {
+    int count = expr.arguments.size();
+    if (tail || count > 3) {
+      List<Object> arguments = evaluateArguments(expr);
+      LoxCallable function = callable(callee, count, expr.paren);
+      if (tail && function instanceof LoxFunction) {
+        return tailCall((LoxFunction) function, null, arguments);
+      }
+      return function.call(this, arguments);
     }
 
+    // Up to three arguments are passed without building a list.
+    Object a = count > 0 ? evaluate(expr.arguments.get(0)) : null;
+    Object b = count > 1 ? evaluate(expr.arguments.get(1)) : null;
+    Object c = count > 2 ? evaluate(expr.arguments.get(2)) : null;
+    LoxCallable function = callable(callee, count, expr.paren);
+    switch (count) {
+      case 0: return function.call0(this);
+      case 1: return function.call1(this, a);
+      case 2: return function.call2(this, a, b);
+      default: return function.call3(this, a, b, c);
+    }
+  }
+
+  /**
+   * Whether a call can evaluate its arguments straight into the function's
+   * new environment: the function is interpreted and the argument count
+   * matches, so nothing can fail between evaluating them and the call.
+   */
+  private static boolean direct(LoxFunction function, Expr.Call expr) {
+    return function.getClass() == LoxFunction.class &&
+        expr.arguments.size() == function.arity();
+  }
+
+  private LoxCallable callable(Object callee, int count, Token paren) {
     if (!(callee instanceof LoxCallable)) {
-      throw new RuntimeError(expr.paren,
+      throw new RuntimeError(paren,
               "Can only call functions and classes.");
     }
 
     LoxCallable function = (LoxCallable)callee;
+    checkArity(function, count, paren);
+    return function;
+  }
+
+  /**
+   * Leaves a call to an interpreted function pending and returns TAIL_CALL.
+   * Functions run by the other engines, which have their own calling
+   * conventions, are called straight away.
+   */
+  Object tailCall(LoxFunction function, LoxInstance receiver, List<Object> arguments) {
+    if (function.getClass() != LoxFunction.class) {
+      return receiver != null
+          ? function.callMethod(this, receiver, arguments)
+          : function.call(this, arguments);
+    }
+    tailFunction = function;
+    tailReceiver = receiver;
+    tailArguments = arguments;
+    return TAIL_CALL;
+  }
 
-    if (arguments.size() != function.arity() && !function.variadic()) {
-      throw new RuntimeError(expr.paren, "Expected " +
-              function.arity() + " arguments but got " +
-              arguments.size() + ".");
+  private List<Object> evaluateArguments(Expr.Call expr) {
+    List<Object> arguments = new ArrayList<>();
+    for (Expr argument : expr.arguments) {
+      arguments.add(evaluate(argument));
     }
+    return arguments;
+  }
 
-    return function.call(this, arguments);
+  private void checkArity(LoxCallable function, int count, Token paren) {
+    if (count != function.arity() && !function.variadic()) {
+      throw new RuntimeError(paren, "Expected " +
+              function.arity() + " arguments but got " +
+              count + ".");
+    }
   }
 
   @Override
   public Object visitGetExpr(Expr.Get expr) {
-    Object object = evaluate(expr.object);
+    return getProperty(expr, evaluate(expr.object));
+  }
 
+  private Object getProperty(Expr.Get expr, Object object) {
     if (object instanceof LoxInstance) {
-      Object result = ((LoxInstance) object).get(expr.name);
+      Object result = expr.cache.get((LoxInstance) object, expr.name);
       if (result instanceof LoxFunction && ((LoxFunction) result).isGetter()) {
-        result = ((LoxFunction) result).call(this, null);
+        result = ((LoxFunction) result).call0(this);
       }
       return result;
     }
 
-    if (object instanceof LoxArray) {
-      return ((LoxArray) object).getMethod(expr.name);
+    if (object instanceof LoxNative) {
+      return NativeMethod.get((LoxNative) object, expr.name);
     }
 
     throw new RuntimeError(expr.name,
@@ -235,7 +506,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     Object value = evaluate(expr.value);
-    ((LoxInstance) object).set(expr.name, value);
+    expr.cache.set((LoxInstance) object, expr.name, value);
 
     return value;
   }
@@ -264,11 +535,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    int distance = locals.get(expr);
-    LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
-    // "this" is always one level nearer than "super"'s environment.
-    LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
-    LoxFunction method = superclass.findMethod(object, expr.method.lexeme);
+    LoxClass superclass = (LoxClass)environment.getAt(expr.depth, expr.slot);
+    // "this" is always one level nearer than "super"'s environment, and is
+    // the only slot there.
+    LoxInstance object = (LoxInstance)environment.getAt(expr.depth - 1, 0);
+    LoxFunction method = superclass.findMethod(object, expr.method.symbol);
 
     if (method == null) {
       throw new RuntimeError(expr.method,
@@ -276,7 +547,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     if (((LoxFunction) method).isGetter()) {
-      return ((LoxFunction) method).call(this, null);
+      return ((LoxFunction) method).call0(this);
     }
 
     return method;
@@ -284,7 +555,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitThisExpr(Expr.This expr) {
-    return lookUpVariable(expr.keyword, expr);
+    return lookUpVariable(expr.keyword, expr.depth, expr.slot);
   }
 
   @Override
@@ -299,9 +570,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitArrayExpr(Expr.Array expr) {
-    return new LoxArray(expr.elements.stream()
-        .map(this::evaluate)
-        .collect(Collectors.toList()));
+    Object[] elements = new Object[expr.elements.size()];
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] = evaluate(expr.elements.get(i));
+    }
+    return new LoxArray(elements);
   }
 
   @Override
@@ -321,10 +594,37 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitUnaryExpr(Expr.Unary expr) {
     Object right = evaluate(expr.right);
 
+    switch (expr.feedback) {
+      case NUMBERS:
+        if (right instanceof Double) {
+          return numberOperation(expr, (double) right);
+        }
+        expr.feedback = TypeFeedback.GENERIC;
+        break;
+      case BOOLEANS:
+        if (right instanceof Boolean) {
+          return !(Boolean) right;
+        }
+        expr.feedback = TypeFeedback.GENERIC;
+        break;
+      case UNINITIALIZED:
+        boolean arithmetic = expr.operator.type == MINUS ||
+            (expr.operator.type != BANG && expr.right instanceof Expr.Variable);
+        if (right instanceof Double && arithmetic) {
+          expr.feedback = TypeFeedback.NUMBERS;
+        } else if (right instanceof Boolean && expr.operator.type == BANG) {
+          expr.feedback = TypeFeedback.BOOLEANS;
+        } else {
+          expr.feedback = TypeFeedback.GENERIC;
+        }
+        break;
+    }
+
     switch (expr.operator.type) {
       case BANG:
         return !isTruthy(right);
       case MINUS:
+        checkNumberOperand(expr.operator, right);
         return -(double)right;
       case PLUS_PLUS: case MINUS_MINUS:
         if (!(expr.right instanceof Expr.Variable)) {
@@ -335,7 +635,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         double value = (double) right;
         Expr.Variable var = (Expr.Variable) expr.right;
         double nextValue = expr.operator.type == PLUS_PLUS ? value + 1 : value - 1;
-        environment.assign(var.name, nextValue);
+        assignVariable(var.name, var.depth, var.slot, nextValue);
         if (expr.postfix) {
           return value;
         } else {
@@ -346,6 +646,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  private Object numberOperation(Expr.Unary expr, double value) {
+    if (expr.operator.type == MINUS) return -value;
+
+    Expr.Variable var = (Expr.Variable) expr.right;
+    double nextValue = expr.operator.type == PLUS_PLUS ? value + 1 : value - 1;
+    assignVariable(var.name, var.depth, var.slot, nextValue);
+    return expr.postfix ? value : nextValue;
+  }
+
   private void checkNumberOperand(Token operator, Object operand) {
     if (operand instanceof Double) return;
     throw new RuntimeError(operator, "Operand must be a number.");
@@ -356,36 +665,79 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     throw new RuntimeError(operator, "Operands must be numbers.");
   }
 
-  private boolean isTruthy(Object object) {
+  /**
+   * Java's floating point remainder is very slow, so take the integer path
+   * when both operands are whole numbers. The sign of a zero result follows
+   * the dividend, as it does for doubles.
+   */
+  static double modulo(double left, double right) {
+    long l = (long) left, r = (long) right;
+    // Casts saturate at Long.MAX_VALUE, which would compare equal to 2^63.
+    if (l == left && r == right && r != 0 &&
+        l != Long.MAX_VALUE && r != Long.MAX_VALUE) {
+      long result = l % r;
+      return result == 0 ? Math.copySign(0.0, left) : result;
+    }
+    return left % right;
+  }
+
+  static boolean isTruthy(Object object) {
     if (object == null) return false;
     if (object instanceof Boolean) return (Boolean)object;
     return true;
   }
 
-  private boolean isEqual(Object a, Object b) {
+  static boolean isEqual(Object a, Object b) {
     if (a == null && b == null) return true;
     if (a == null) return false;
 
+    if (a instanceof Rope) a = a.toString();
+    if (b instanceof Rope) b = b.toString();
+
     return a.equals(b);
   }
 
+  static String numberToString(double number) {
+    // Hack. Work around Java adding ".0" to integer-valued doubles.
+    String text = Double.toString(number);
+    if (text.endsWith(".0")) {
+      text = text.substring(0, text.length() - 2);
+    }
+    return text;
+  }
+
   public String stringify(Object object) {
     if (object == null) return "nil";
 
-    // Hack. Work around Java adding ".0" to integer-valued doubles.
-    if (object instanceof Double) {
-      String text = object.toString();
-      if (text.endsWith(".0")) {
-        text = text.substring(0, text.length() - 2);
+    if (object instanceof Double) return numberToString((double) object);
+
+    if (object instanceof LoxArray) {
+      LoxArray array = (LoxArray) object;
+      StringJoiner elStrings = new StringJoiner(", ", "[", "]");
+      for (int i = 0; i < array.length(); i++) {
+        elStrings.add(stringify(array.element(i)));
       }
-      return text;
+      return elStrings.toString();
     }
 
-    if (object instanceof LoxArray) {
-      List<String> elStrings = ((LoxArray) object).getElements().stream()
-          .map(this::stringify)
-          .collect(Collectors.toList());
-      return "[" + String.join(", ", elStrings) + "]";
+    if (object instanceof LoxMap) {
+      LoxMap map = (LoxMap) object;
+      StringJoiner entries = new StringJoiner(", ", "{", "}");
+      for (int i = 0; i < map.end(); i++) {
+        if (map.isLive(i)) {
+          entries.add(stringify(map.keyAt(i)) + ": " + stringify(map.valueAt(i)));
+        }
+      }
+      return entries.toString();
+    }
+
+    if (object instanceof LoxSet) {
+      LoxSet set = (LoxSet) object;
+      StringJoiner elements = new StringJoiner(", ", "{", "}");
+      for (int i = 0; i < set.end(); i++) {
+        if (set.isLive(i)) elements.add(stringify(set.elementAt(i)));
+      }
+      return elements.toString();
     }
 
     return object.toString();
@@ -407,11 +759,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
     Object value = null;
-    if (stmt.value != null) {
+    if (stmt.tailCall) {
+      value = tailCall((Expr.Call) stmt.value);
+    } else if (stmt.value != null) {
       value = evaluate(stmt.value);
     }
 
-    throw new ReturnJump(value);
+    returnValue = value;
+    returning = true;
+    return null;
   }
 
   @Override
@@ -428,27 +784,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
+    assignVariable(expr.name, expr.depth, expr.slot, value);
+    return value;
+  }
 
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      environment.assignAt(distance, expr.name, value);
+  private void assignVariable(Token name, int depth, int slot, Object value) {
+    if (depth != -1) {
+      environment.assignAt(depth, slot, value);
     } else {
-      globals.assign(expr.name, value);
+      globals.assign(name, value);
     }
-
-    environment.assign(expr.name, value);
-    return value;
   }
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return lookUpVariable(expr.name, expr);
+    return lookUpVariable(expr.name, expr.depth, expr.slot);
   }
 
-  private Object lookUpVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      return environment.getAt(distance, name.lexeme);
+  private Object lookUpVariable(Token name, int depth, int slot) {
+    if (depth != -1) {
+      return environment.getAt(depth, slot);
     } else {
       return globals.get(name);
     }
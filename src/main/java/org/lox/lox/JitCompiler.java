@@ -0,0 +1,802 @@
+package org.lox.lox;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lox.lox.ClassFile.*;
+
+/**
+ * Compiles the body of a hot function to a JVM class so HotSpot can optimize
+ * the Lox code directly. Locals that only ever hold numbers live in unboxed
+ * double slots; everything else goes through {@link JitRuntime}, which
+ * behaves exactly like the Interpreter.
+ *
+ * Parameters seen holding numbers when the function got hot are assumed to
+ * stay numbers. The compiled code checks that on entry and hands the call
+ * back to the interpreter if it does not hold.
+ */
+class JitCompiler implements Expr.Visitor<JitCompiler.Type>, Stmt.Visitor<Void> {
+
+  /** Calls before a function gets compiled, or 0 to turn the JIT off. */
+  static final int THRESHOLD = Integer.getInteger("lox.jit.threshold", 1000);
+
+  /** What an expression leaves on the JVM stack. */
+  enum Type {
+    DOUBLE,
+    BOOLEAN,
+    OBJECT
+  }
+
+  /** Thrown for code the JIT leaves to the interpreter. */
+  private static class Unsupported extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Unsupported() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static class Local {
+    boolean isDouble;
+    int index;
+
+    Local(boolean isDouble) {
+      this.isDouble = isDouble;
+    }
+  }
+
+  /** A scope of the function being compiled, indexed like its Environment. */
+  private static class Scope {
+    final Local[] slots;
+    int count = 0;
+
+    Scope(int slotCount) {
+      slots = new Local[slotCount];
+    }
+  }
+
+  private static class Loader extends ClassLoader {
+    Loader() {
+      super(JitCompiler.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  private static final String RUNTIME = "org/lox/lox/JitRuntime";
+  private static final String CODE = "org/lox/lox/JitRuntime$Code";
+  private static final String OBJECT = "java/lang/Object";
+  private static final String DOUBLE = "java/lang/Double";
+  private static final String TOKEN = "Lorg/lox/lox/Token;";
+  private static final String INTERPRETER = "Lorg/lox/lox/Interpreter;";
+  private static final String ENVIRONMENT = "Lorg/lox/lox/Environment;";
+
+  // Slots of run(Interpreter, Environment, Object[], Object[]).
+  private static final int INTERPRETER_SLOT = 1;
+  private static final int CLOSURE_SLOT = 2;
+  private static final int ARGUMENTS_SLOT = 3;
+  private static final int CONSTANTS_SLOT = 4;
+
+  private static int classCount = 0;
+
+  private final Stmt.Function function;
+  private final boolean isInitializer;
+  private final Local[] parameters;
+  // Locals keyed by their Stmt.Var, kept across passes.
+  private final Map<Stmt.Var, Local> locals = new IdentityHashMap<>();
+  private final List<Object> constants = new ArrayList<>();
+  private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+
+  private ClassFile.Method code;
+  private final List<Scope> scopes = new ArrayList<>();
+  private int nextLocal;
+  private boolean changed;
+
+  private JitCompiler(Stmt.Function function, boolean isInitializer, boolean[] numeric) {
+    this.function = function;
+    this.isInitializer = isInitializer;
+    parameters = new Local[numeric.length];
+    for (int i = 0; i < numeric.length; i++) {
+      parameters[i] = new Local(numeric[i]);
+    }
+  }
+
+  /**
+   * Compiles a function that just got hot, or recompiles one whose compiled
+   * code was handed arguments it did not expect. Returns null if the
+   * function uses something the JIT does not handle, or is too large for a
+   * class file, and should stay interpreted. Anything else going wrong is a
+   * bug in the generated code and is not hidden.
+   */
+  static JitFunction compile(Stmt.Function function, boolean isInitializer,
+                             Object[] arguments, JitFunction previous) {
+    boolean[] numeric = new boolean[function.parameters != null ? function.parameters.size() : 0];
+    for (int i = 0; i < numeric.length; i++) {
+      numeric[i] = arguments[i] instanceof Double &&
+          (previous == null || previous.numeric[i]);
+    }
+
+    JitCompiler compiler = new JitCompiler(function, isInitializer, numeric);
+    try {
+      // Locals start out assumed to be numbers. Any pass that finds one
+      // holding something else demotes it and the body is compiled again.
+      String name = "org/lox/lox/jit/" + function.name.lexeme + "$" + ++classCount;
+      ClassFile classFile;
+      do {
+        classFile = compiler.generate(name);
+      } while (compiler.changed);
+
+      Class<?> klass = new Loader().define(name.replace('/', '.'), classFile.toByteArray());
+      JitRuntime.Code code = (JitRuntime.Code) klass.getDeclaredConstructor().newInstance();
+      return new JitFunction(code, compiler.constants.toArray(), numeric);
+    } catch (Unsupported | ClassFile.TooLarge error) {
+      return null;
+    } catch (ReflectiveOperationException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  private ClassFile generate(String name) {
+    ClassFile classFile = new ClassFile(name, OBJECT, CODE);
+    code = classFile.method(ACC_PUBLIC, "run", "(" + INTERPRETER + ENVIRONMENT +
+        "[Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", 5);
+    nextLocal = 5;
+    changed = false;
+    scopes.clear();
+
+    Scope scope = beginScope(function.slotCount);
+    ClassFile.Label deopt = code.label();
+    for (int i = 0; i < parameters.length; i++) {
+      Local parameter = parameters[i];
+      declare(scope, parameter);
+      code.load(ALOAD, ARGUMENTS_SLOT);
+      code.pushInt(i);
+      code.op(AALOAD);
+      if (parameter.isDouble) {
+        code.op(DUP);
+        code.type(INSTANCEOF, DOUBLE);
+        code.jump(IFEQ, deopt);
+        unbox();
+        code.store(DSTORE, parameter.index);
+      } else {
+        code.store(ASTORE, parameter.index);
+      }
+    }
+
+    for (Stmt statement : function.body) {
+      statement.accept(this);
+    }
+
+    if (isInitializer) {
+      loadThis();
+    } else {
+      code.op(ACONST_NULL);
+    }
+    code.op(ARETURN);
+
+    // An argument failed its guard: the interpreter takes this call.
+    code.mark(deopt);
+    code.op(POP);
+    code.getStatic(RUNTIME, "DEOPT", "Ljava/lang/Object;");
+    code.op(ARETURN);
+    return classFile;
+  }
+
+  private Scope beginScope(int slotCount) {
+    Scope scope = new Scope(slotCount);
+    scopes.add(scope);
+    return scope;
+  }
+
+  private void endScope() {
+    scopes.remove(scopes.size() - 1);
+  }
+
+  private void declare(Scope scope, Local local) {
+    local.index = nextLocal;
+    nextLocal += local.isDouble ? 2 : 1;
+    scope.slots[scope.count++] = local;
+  }
+
+  /** The local a resolved variable refers to, or null if it is not ours. */
+  private Local local(int depth, int slot) {
+    if (depth == -1 || depth >= scopes.size()) return null;
+    Local local = scopes.get(scopes.size() - 1 - depth).slots[slot];
+    if (local == null) throw new Unsupported();
+    return local;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    if (stmt.flat) {
+      // The block's variables share the enclosing scope's slots.
+      Scope scope = scopes.get(scopes.size() - 1);
+      int count = scope.count;
+      for (Stmt statement : stmt.statements) {
+        statement.accept(this);
+      }
+      scope.count = count;
+      return null;
+    }
+
+    beginScope(stmt.slotCount);
+    for (Stmt statement : stmt.statements) {
+      statement.accept(this);
+    }
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    pop(compile(stmt.expression));
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    // Closures capture scopes, which compiled code keeps in JVM locals.
+    throw new Unsupported();
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    ClassFile.Label elseBranch = code.label(), end = code.label();
+    condition(stmt.condition);
+    code.jump(IFEQ, elseBranch);
+    stmt.thenBranch.accept(this);
+    code.jump(GOTO, end);
+    code.mark(elseBranch);
+    if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+    code.mark(end);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    ClassFile.Label start = code.label(), end = code.label();
+    code.mark(start);
+    condition(stmt.condition);
+    code.jump(IFEQ, end);
+    stmt.body.accept(this);
+    code.jump(GOTO, start);
+    code.mark(end);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.tailCall) {
+      call((Expr.Call) stmt.value, true);
+    } else if (stmt.value != null) {
+      compile(stmt.value, Type.OBJECT);
+    } else {
+      code.op(ACONST_NULL);
+    }
+    code.op(ARETURN);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    Local local = locals.get(stmt);
+    if (local == null) {
+      local = new Local(true);
+      locals.put(stmt, local);
+    }
+
+    Type type;
+    if (stmt.initializer != null) {
+      type = compile(stmt.initializer);
+    } else {
+      code.op(ACONST_NULL);
+      type = Type.OBJECT;
+    }
+    declare(scopes.get(scopes.size() - 1), local);
+    store(local, type, false);
+    return null;
+  }
+
+  @Override
+  public Type visitAssignExpr(Expr.Assign expr) {
+    Local local = local(expr.depth, expr.slot);
+    if (local != null) {
+      return store(local, compile(expr.value), true);
+    }
+
+    compile(expr.value, Type.OBJECT);
+    assignNonLocal(expr.name, expr.depth, expr.slot);
+    return Type.OBJECT;
+  }
+
+  @Override
+  public Type visitBinaryExpr(Expr.Binary expr) {
+    Token operator = expr.operator;
+    Type left = compile(expr.left);
+
+    if (operator.type == TokenType.COMMA) {
+      pop(left);
+      return compile(expr.right);
+    }
+
+    Type right = compile(expr.right);
+    boolean numbers = left == Type.DOUBLE && right == Type.DOUBLE;
+
+    switch (operator.type) {
+      case GREATER:
+        return numbers ? compare(DCMPL, IFGT) : boxed(left, right, operator, "greater", "Z");
+      case GREATER_EQUAL:
+        return numbers ? compare(DCMPL, IFGE) : boxed(left, right, operator, "greaterEqual", "Z");
+      case LESS:
+        return numbers ? compare(DCMPG, IFLT) : boxed(left, right, operator, "less", "Z");
+      case LESS_EQUAL:
+        return numbers ? compare(DCMPG, IFLE) : boxed(left, right, operator, "lessEqual", "Z");
+      case MINUS:
+        if (!numbers) return boxed(left, right, operator, "subtract", "D");
+        code.op(DSUB);
+        return Type.DOUBLE;
+      case STAR:
+        if (!numbers) return boxed(left, right, operator, "multiply", "D");
+        code.op(DMUL);
+        return Type.DOUBLE;
+      case SLASH:
+        if (!numbers) return boxed(left, right, operator, "divide", "D");
+        token(operator);
+        code.invoke(INVOKESTATIC, RUNTIME, "divide", "(DD" + TOKEN + ")D");
+        return Type.DOUBLE;
+      case MODULO:
+        if (!numbers) return boxed(left, right, operator, "modulo", "D");
+        code.invoke(INVOKESTATIC, RUNTIME, "modulo", "(DD)D");
+        return Type.DOUBLE;
+      case EXPONENT:
+        if (!numbers) return boxed(left, right, operator, "exponent", "D");
+        code.invoke(INVOKESTATIC, "java/lang/Math", "pow", "(DD)D");
+        return Type.DOUBLE;
+      case PLUS:
+        if (numbers) {
+          code.op(DADD);
+          return Type.DOUBLE;
+        }
+        box(left, right);
+        token(operator);
+        code.load(ALOAD, INTERPRETER_SLOT);
+        code.invoke(INVOKESTATIC, RUNTIME, "add",
+            "(Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + INTERPRETER + ")Ljava/lang/Object;");
+        return Type.OBJECT;
+      case EQUAL_EQUAL: case BANG_EQUAL:
+        boolean equal = operator.type == TokenType.EQUAL_EQUAL;
+        if (numbers) {
+          // Double.compare() agrees with the Double.equals() Lox uses on NaN and -0.
+          code.invoke(INVOKESTATIC, DOUBLE, "compare", "(DD)I");
+          return branch(equal ? IFEQ : IFNE);
+        }
+        if (left == Type.BOOLEAN && right == Type.BOOLEAN) {
+          code.op(IXOR);
+        } else {
+          box(left, right);
+          code.invoke(INVOKESTATIC, RUNTIME, "isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+          code.op(ICONST_1);
+          code.op(IXOR);
+        }
+        if (equal) {
+          code.op(ICONST_1);
+          code.op(IXOR);
+        }
+        return Type.BOOLEAN;
+    }
+
+    throw new Unsupported();
+  }
+
+  /** Compares two doubles and pushes whether the branch would be taken. */
+  private Type compare(int compare, int branch) {
+    code.op(compare);
+    return branch(branch);
+  }
+
+  private Type branch(int opcode) {
+    ClassFile.Label taken = code.label(), end = code.label();
+    code.jump(opcode, taken);
+    code.op(ICONST_0);
+    code.jump(GOTO, end);
+    code.mark(taken);
+    code.op(ICONST_1);
+    code.mark(end);
+    return Type.BOOLEAN;
+  }
+
+  /** Calls the JitRuntime helper for an operator on operands of any type. */
+  private Type boxed(Type left, Type right, Token operator, String helper, String result) {
+    box(left, right);
+    token(operator);
+    code.invoke(INVOKESTATIC, RUNTIME, helper,
+        "(Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + ")" + result);
+    return result.equals("D") ? Type.DOUBLE : Type.BOOLEAN;
+  }
+
+  /** Boxes the two operands on top of the stack. */
+  private void box(Type left, Type right) {
+    if (left != Type.OBJECT && right != Type.OBJECT) {
+      // The left operand is underneath the right one.
+      int temp = nextLocal;
+      nextLocal += 2;
+      code.store(storeOpcode(right), temp);
+      convert(left, Type.OBJECT);
+      code.load(loadOpcode(right), temp);
+    } else if (left != Type.OBJECT) {
+      code.store(ASTORE, nextLocal);
+      convert(left, Type.OBJECT);
+      code.load(ALOAD, nextLocal++);
+    }
+    convert(right, Type.OBJECT);
+  }
+
+  @Override
+  public Type visitCallExpr(Expr.Call expr) {
+    return call(expr, false);
+  }
+
+  /** A call, or in tail position one the caller's trampoline may make. */
+  private Type call(Expr.Call expr, boolean tail) {
+    if (expr.callee instanceof Expr.Get) return invoke(expr, (Expr.Get) expr.callee, tail);
+
+    compile(expr.callee, Type.OBJECT);
+    objectArray(expr.arguments);
+    token(expr.paren);
+    code.load(ALOAD, INTERPRETER_SLOT);
+    code.invoke(INVOKESTATIC, RUNTIME, tail ? "tailCall" : "call",
+        "(Ljava/lang/Object;[Ljava/lang/Object;" + TOKEN + INTERPRETER + ")Ljava/lang/Object;");
+    return Type.OBJECT;
+  }
+
+  /**
+   * obj.name(args). Leaves the callee and the receiver on the stack: the
+   * unbound method and obj, or the property's value and null.
+   */
+  private Type invoke(Expr.Call expr, Expr.Get get, boolean tail) {
+    ClassFile.Label property = code.label();
+    ClassFile.Label arguments = code.label();
+
+    compile(get.object, Type.OBJECT);
+    code.op(DUP);
+    constant(get.cache);
+    token(get.name);
+    code.invoke(INVOKESTATIC, RUNTIME, "method",
+        "(Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+    code.op(DUP);
+    code.jump(IFNULL, property);
+    code.op(SWAP);
+    code.jump(GOTO, arguments);
+
+    code.mark(property);
+    code.op(POP);
+    constant(get.cache);
+    token(get.name);
+    code.load(ALOAD, INTERPRETER_SLOT);
+    code.invoke(INVOKESTATIC, RUNTIME, "get",
+        "(Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + INTERPRETER + ")Ljava/lang/Object;");
+    code.op(ACONST_NULL);
+
+    code.mark(arguments);
+    objectArray(expr.arguments);
+    token(expr.paren);
+    code.load(ALOAD, INTERPRETER_SLOT);
+    code.invoke(INVOKESTATIC, RUNTIME, tail ? "tailInvoke" : "invoke",
+        "(Ljava/lang/Object;Ljava/lang/Object;[Ljava/lang/Object;" + TOKEN + INTERPRETER
+            + ")Ljava/lang/Object;");
+    return Type.OBJECT;
+  }
+
+  @Override
+  public Type visitIndexGetExpr(Expr.IndexGet expr) {
+    compile(expr.indexee, Type.OBJECT);
+    compile(expr.index, Type.OBJECT);
+    token(expr.bracket);
+    code.invoke(INVOKESTATIC, RUNTIME, "indexGet",
+        "(Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+    return Type.OBJECT;
+  }
+
+  @Override
+  public Type visitIndexSetExpr(Expr.IndexSet expr) {
+    compile(expr.indexee, Type.OBJECT);
+    token(expr.bracket);
+    code.invoke(INVOKESTATIC, RUNTIME, "indexable",
+        "(Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+    compile(expr.index, Type.OBJECT);
+    compile(expr.value, Type.OBJECT);
+    token(expr.bracket);
+    code.invoke(INVOKESTATIC, RUNTIME, "indexSet",
+        "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+    return Type.OBJECT;
+  }
+
+  @Override
+  public Type visitArrayExpr(Expr.Array expr) {
+    objectArray(expr.elements);
+    code.invoke(INVOKESTATIC, RUNTIME, "array", "([Ljava/lang/Object;)Ljava/lang/Object;");
+    return Type.OBJECT;
+  }
+
+  private void objectArray(List<Expr> exprs) {
+    code.pushInt(exprs.size());
+    code.type(ANEWARRAY, OBJECT);
+    for (int i = 0; i < exprs.size(); i++) {
+      code.op(DUP);
+      code.pushInt(i);
+      compile(exprs.get(i), Type.OBJECT);
+      code.op(AASTORE);
+    }
+  }
+
+  @Override
+  public Type visitGetExpr(Expr.Get expr) {
+    compile(expr.object, Type.OBJECT);
+    constant(expr.cache);
+    token(expr.name);
+    code.load(ALOAD, INTERPRETER_SLOT);
+    code.invoke(INVOKESTATIC, RUNTIME, "get",
+        "(Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + INTERPRETER + ")Ljava/lang/Object;");
+    return Type.OBJECT;
+  }
+
+  @Override
+  public Type visitGroupingExpr(Expr.Grouping expr) {
+    return compile(expr.expression);
+  }
+
+  @Override
+  public Type visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value instanceof Double) {
+      code.pushDouble((Double) expr.value);
+      return Type.DOUBLE;
+    }
+    if (expr.value instanceof Boolean) {
+      code.op((Boolean) expr.value ? ICONST_1 : ICONST_0);
+      return Type.BOOLEAN;
+    }
+    if (expr.value == null) {
+      code.op(ACONST_NULL);
+    } else {
+      constant(expr.value);
+    }
+    return Type.OBJECT;
+  }
+
+  @Override
+  public Type visitLogicalExpr(Expr.Logical expr) {
+    ClassFile.Label end = code.label();
+    compile(expr.left, Type.OBJECT);
+    code.op(DUP);
+    code.invoke(INVOKESTATIC, RUNTIME, "isTruthy", "(Ljava/lang/Object;)Z");
+    code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+    code.op(POP);
+    compile(expr.right, Type.OBJECT);
+    code.mark(end);
+    return Type.OBJECT;
+  }
+
+  @Override
+  public Type visitSetExpr(Expr.Set expr) {
+    compile(expr.object, Type.OBJECT);
+    token(expr.name);
+    code.invoke(INVOKESTATIC, RUNTIME, "instance",
+        "(Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+    compile(expr.value, Type.OBJECT);
+    constant(expr.cache);
+    token(expr.name);
+    code.invoke(INVOKESTATIC, RUNTIME, "set",
+        "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;");
+    return Type.OBJECT;
+  }
+
+  @Override
+  public Type visitSuperExpr(Expr.Super expr) {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Type visitThisExpr(Expr.This expr) {
+    return variable(expr.keyword, expr.depth, expr.slot);
+  }
+
+  @Override
+  public Type visitUnaryExpr(Expr.Unary expr) {
+    switch (expr.operator.type) {
+      case BANG:
+        condition(expr.right);
+        code.op(ICONST_1);
+        code.op(IXOR);
+        return Type.BOOLEAN;
+      case MINUS: {
+        Type type = compile(expr.right);
+        if (type == Type.DOUBLE) {
+          code.op(DNEG);
+        } else {
+          convert(type, Type.OBJECT);
+          token(expr.operator);
+          code.invoke(INVOKESTATIC, RUNTIME, "negate", "(Ljava/lang/Object;" + TOKEN + ")D");
+        }
+        return Type.DOUBLE;
+      }
+      case PLUS_PLUS: case MINUS_MINUS: {
+        if (!(expr.right instanceof Expr.Variable)) throw new Unsupported();
+        Expr.Variable var = (Expr.Variable) expr.right;
+        Type type = compile(var);
+        if (type != Type.DOUBLE) {
+          convert(type, Type.OBJECT);
+          token(expr.operator);
+          code.invoke(INVOKESTATIC, RUNTIME, "number", "(Ljava/lang/Object;" + TOKEN + ")D");
+        }
+        if (expr.postfix) code.op(DUP2);
+        code.op(DCONST_1);
+        code.op(expr.operator.type == TokenType.PLUS_PLUS ? DADD : DSUB);
+        if (!expr.postfix) code.op(DUP2);
+
+        Local local = local(var.depth, var.slot);
+        if (local != null) {
+          store(local, Type.DOUBLE, false);
+        } else {
+          convert(Type.DOUBLE, Type.OBJECT);
+          assignNonLocal(var.name, var.depth, var.slot);
+          code.op(POP);
+        }
+        return Type.DOUBLE;
+      }
+    }
+
+    throw new Unsupported();
+  }
+
+  @Override
+  public Type visitVariableExpr(Expr.Variable expr) {
+    return variable(expr.name, expr.depth, expr.slot);
+  }
+
+  private Type variable(Token name, int depth, int slot) {
+    Local local = local(depth, slot);
+    if (local != null) {
+      code.load(local.isDouble ? DLOAD : ALOAD, local.index);
+      return local.isDouble ? Type.DOUBLE : Type.OBJECT;
+    }
+
+    if (depth == -1) {
+      code.load(ALOAD, INTERPRETER_SLOT);
+      token(name);
+      code.invoke(INVOKESTATIC, RUNTIME, "getGlobal",
+          "(" + INTERPRETER + TOKEN + ")Ljava/lang/Object;");
+    } else {
+      code.load(ALOAD, CLOSURE_SLOT);
+      code.pushInt(depth - scopes.size());
+      code.pushInt(slot);
+      code.invoke(INVOKESTATIC, RUNTIME, "getAt",
+          "(" + ENVIRONMENT + "II)Ljava/lang/Object;");
+    }
+    return Type.OBJECT;
+  }
+
+  /** Assigns the boxed value on the stack to a global or captured variable. */
+  private void assignNonLocal(Token name, int depth, int slot) {
+    if (depth == -1) {
+      code.load(ALOAD, INTERPRETER_SLOT);
+      token(name);
+      code.invoke(INVOKESTATIC, RUNTIME, "assignGlobal",
+          "(Ljava/lang/Object;" + INTERPRETER + TOKEN + ")Ljava/lang/Object;");
+    } else {
+      code.load(ALOAD, CLOSURE_SLOT);
+      code.pushInt(depth - scopes.size());
+      code.pushInt(slot);
+      code.invoke(INVOKESTATIC, RUNTIME, "assignAt",
+          "(Ljava/lang/Object;" + ENVIRONMENT + "II)Ljava/lang/Object;");
+    }
+  }
+
+  /**
+   * Stores the value on the stack in a local, leaving a copy behind if
+   * asked. A number local that is handed anything else stops being one.
+   */
+  private Type store(Local local, Type type, boolean keep) {
+    if (local.isDouble && type != Type.DOUBLE) {
+      local.isDouble = false;
+      changed = true;
+    }
+
+    Type localType = local.isDouble ? Type.DOUBLE : Type.OBJECT;
+    convert(type, localType);
+    if (keep) code.op(local.isDouble ? DUP2 : DUP);
+    code.store(local.isDouble ? DSTORE : ASTORE, local.index);
+    return localType;
+  }
+
+  private void loadThis() {
+    code.load(ALOAD, CLOSURE_SLOT);
+    code.op(ICONST_0);
+    code.op(ICONST_0);
+    code.invoke(INVOKESTATIC, RUNTIME, "getAt", "(" + ENVIRONMENT + "II)Ljava/lang/Object;");
+  }
+
+  private Type compile(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private void compile(Expr expr, Type type) {
+    convert(compile(expr), type);
+  }
+
+  /** Compiles an expression to an int that is 1 if it is truthy. */
+  private void condition(Expr expr) {
+    Type type = compile(expr);
+    if (type == Type.DOUBLE) {
+      // Every number is truthy.
+      code.op(POP2);
+      code.op(ICONST_1);
+    } else if (type == Type.OBJECT) {
+      code.invoke(INVOKESTATIC, RUNTIME, "isTruthy", "(Ljava/lang/Object;)Z");
+    }
+  }
+
+  private void convert(Type from, Type to) {
+    if (from == to) return;
+
+    if (to == Type.OBJECT) {
+      if (from == Type.DOUBLE) {
+        code.invoke(INVOKESTATIC, DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+      } else {
+        code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+      }
+      return;
+    }
+
+    // Only reachable in a pass that has just demoted a local, whose code
+    // gets thrown away. Keep the stack shape right regardless.
+    pop(from);
+    if (to == Type.DOUBLE) {
+      code.op(DCONST_0);
+    } else {
+      code.op(ICONST_0);
+    }
+  }
+
+  private void unbox() {
+    code.type(CHECKCAST, DOUBLE);
+    code.invoke(INVOKEVIRTUAL, DOUBLE, "doubleValue", "()D");
+  }
+
+  private void pop(Type type) {
+    code.op(type == Type.DOUBLE ? POP2 : POP);
+  }
+
+  private static int loadOpcode(Type type) {
+    return type == Type.DOUBLE ? DLOAD : type == Type.BOOLEAN ? ILOAD : ALOAD;
+  }
+
+  private static int storeOpcode(Type type) {
+    return type == Type.DOUBLE ? DSTORE : type == Type.BOOLEAN ? ISTORE : ASTORE;
+  }
+
+  private void token(Token token) {
+    constant(token);
+    code.type(CHECKCAST, "org/lox/lox/Token");
+  }
+
+  private void constant(Object value) {
+    Integer index = constantIndexes.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      constantIndexes.put(value, index);
+    }
+    code.load(ALOAD, CONSTANTS_SLOT);
+    code.pushInt(index);
+    code.op(AALOAD);
+  }
+}
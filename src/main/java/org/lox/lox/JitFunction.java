@@ -0,0 +1,28 @@
+package org.lox.lox;
+
+/**
+ * A function body compiled by {@link JitCompiler}, shared by every closure
+ * over the same declaration.
+ */
+class JitFunction {
+
+  private final JitRuntime.Code code;
+  private final Object[] constants;
+  // Which parameters the compiled code assumes hold numbers.
+  final boolean[] numeric;
+
+  JitFunction(JitRuntime.Code code, Object[] constants, boolean[] numeric) {
+    this.code = code;
+    this.constants = constants;
+    this.numeric = numeric;
+  }
+
+  /**
+   * Runs the compiled code, or returns {@link JitRuntime#DEOPT} without
+   * side effects if the arguments break its assumptions. The arguments
+   * are read from the front of the array, which may be longer.
+   */
+  Object invoke(Interpreter interpreter, Environment closure, Object[] arguments) {
+    return code.run(interpreter, closure, arguments, constants);
+  }
+}
@@ -0,0 +1,268 @@
+package org.lox.lox;
+
+import java.util.Arrays;
+
+/**
+ * Entry points for code generated by {@link JitCompiler}. Generated classes
+ * live in their own class loader, so everything they touch has to be public.
+ * Each helper does exactly what the matching Interpreter visit method does,
+ * including its error messages.
+ */
+public final class JitRuntime {
+
+  /** Returned by compiled code when an argument fails its type guard. */
+  public static final Object DEOPT = new Object();
+
+  /** The interface every compiled function implements. */
+  public interface Code {
+    Object run(Interpreter interpreter, Environment closure, Object[] arguments, Object[] constants);
+  }
+
+  private JitRuntime() {}
+
+  public static boolean isTruthy(Object object) {
+    return Interpreter.isTruthy(object);
+  }
+
+  public static boolean isEqual(Object a, Object b) {
+    return Interpreter.isEqual(a, b);
+  }
+
+  public static Object getAt(Environment environment, int distance, int slot) {
+    return environment.getAt(distance, slot);
+  }
+
+  public static Object assignAt(Object value, Environment environment, int distance, int slot) {
+    environment.assignAt(distance, slot, value);
+    return value;
+  }
+
+  public static Object getGlobal(Interpreter interpreter, Token name) {
+    return interpreter.globals.get(name);
+  }
+
+  public static Object assignGlobal(Object value, Interpreter interpreter, Token name) {
+    interpreter.globals.assign(name, value);
+    return value;
+  }
+
+  public static Object add(Object left, Object right, Token operator, Interpreter interpreter) {
+    if (left instanceof Double && right instanceof Double) {
+      return (double) left + (double) right;
+    }
+
+    if (Rope.isString(left) && Rope.isString(right)) {
+      return Rope.concat((CharSequence) left, (CharSequence) right);
+    }
+
+    if (Rope.isString(left) && right instanceof Double) {
+      return Rope.concat((CharSequence) left, interpreter.stringify(right));
+    }
+
+    if (left instanceof Double && Rope.isString(right)) {
+      return Rope.concat(interpreter.stringify(left), (CharSequence) right);
+    }
+
+    throw new RuntimeError(operator,
+        "Operands must be two numbers or two strings.");
+  }
+
+  public static double subtract(Object left, Object right, Token operator) {
+    return number(left, operator) - number(right, operator);
+  }
+
+  public static double multiply(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left * (double) right;
+  }
+
+  public static double divide(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return divide((double) left, (double) right, operator);
+  }
+
+  public static double divide(double left, double right, Token operator) {
+    if (right == 0.0) throw new RuntimeError(operator, "division by zero.");
+    return left / right;
+  }
+
+  public static double modulo(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return Interpreter.modulo((double) left, (double) right);
+  }
+
+  public static double modulo(double left, double right) {
+    return Interpreter.modulo(left, right);
+  }
+
+  public static double exponent(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return Math.pow((double) left, (double) right);
+  }
+
+  public static boolean greater(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left > (double) right;
+  }
+
+  public static boolean greaterEqual(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left >= (double) right;
+  }
+
+  public static boolean less(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left < (double) right;
+  }
+
+  public static boolean lessEqual(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left <= (double) right;
+  }
+
+  public static double negate(Object right, Token operator) {
+    return -number(right, operator);
+  }
+
+  /** The operand of -, ++ or --. */
+  public static double number(Object operand, Token operator) {
+    if (operand instanceof Double) return (double) operand;
+    throw new RuntimeError(operator, "Operand must be a number.");
+  }
+
+  public static Object call(Object callee, Object[] arguments, Token paren, Interpreter interpreter) {
+    LoxCallable function = callable(callee, arguments, paren);
+    return function.call(interpreter, arguments);
+  }
+
+  /** A call in tail position. See {@link Interpreter#tailCall}. */
+  public static Object tailCall(Object callee, Object[] arguments, Token paren, Interpreter interpreter) {
+    LoxCallable function = callable(callee, arguments, paren);
+    if (function instanceof LoxFunction) {
+      return interpreter.tailCall((LoxFunction) function, null, Arrays.asList(arguments));
+    }
+    return function.call(interpreter, arguments);
+  }
+
+  private static LoxCallable callable(Object callee, Object[] arguments, Token paren) {
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren,
+          "Can only call functions and classes.");
+    }
+
+    LoxCallable function = (LoxCallable) callee;
+
+    if (arguments.length != function.arity() && !function.variadic()) {
+      throw new RuntimeError(paren, "Expected " +
+          function.arity() + " arguments but got " +
+          arguments.length + ".");
+    }
+    return function;
+  }
+
+  /**
+   * The unbound method an obj.name(args) call runs on obj, or null if the
+   * call has to get the property first.
+   */
+  public static Object method(Object object, Object cache, Token name) {
+    if (object instanceof LoxInstance) {
+      return ((InlineCache) cache).method((LoxInstance) object, name);
+    }
+    if (object instanceof LoxNative) {
+      return NativeMethod.of((LoxNative) object, name);
+    }
+    return null;
+  }
+
+  /** Calls a method on a receiver, or a plain callee if receiver is null. */
+  public static Object invoke(Object callee, Object receiver, Object[] arguments, Token paren,
+                              Interpreter interpreter) {
+    if (receiver == null) return call(callee, arguments, paren, interpreter);
+    if (receiver instanceof LoxNative) {
+      return invokeNative(receiver, callee, arguments, paren, interpreter);
+    }
+
+    LoxFunction method = (LoxFunction) callable(callee, arguments, paren);
+    return method.callMethod(interpreter, (LoxInstance) receiver, Arrays.asList(arguments));
+  }
+
+  /** {@link #invoke} in tail position. */
+  public static Object tailInvoke(Object callee, Object receiver, Object[] arguments, Token paren,
+                                  Interpreter interpreter) {
+    if (receiver == null) return tailCall(callee, arguments, paren, interpreter);
+    if (receiver instanceof LoxNative) {
+      return invokeNative(receiver, callee, arguments, paren, interpreter);
+    }
+
+    LoxFunction method = (LoxFunction) callable(callee, arguments, paren);
+    return interpreter.tailCall(method, (LoxInstance) receiver, Arrays.asList(arguments));
+  }
+
+  /** Calls a method from {@link #method} on a native value without binding it. */
+  @SuppressWarnings("unchecked")
+  private static Object invokeNative(Object receiver, Object callee, Object[] arguments,
+                                     Token paren, Interpreter interpreter) {
+    NativeMethod<Object> method = (NativeMethod<Object>) callee;
+    method.checkArity(arguments.length, paren);
+    return method.call(interpreter, receiver, arguments);
+  }
+
+  public static Object get(Object object, Object cache, Token name, Interpreter interpreter) {
+    if (object instanceof LoxInstance) {
+      Object result = ((InlineCache) cache).get((LoxInstance) object, name);
+      if (result instanceof LoxFunction && ((LoxFunction) result).isGetter()) {
+        result = ((LoxFunction) result).call0(interpreter);
+      }
+      return result;
+    }
+
+    if (object instanceof LoxNative) {
+      return NativeMethod.get((LoxNative) object, name);
+    }
+
+    throw new RuntimeError(name,
+        "Only instances have properties.");
+  }
+
+  /** The receiver of a set, checked before the value is evaluated. */
+  public static Object instance(Object object, Token name) {
+    if (!(object instanceof LoxInstance)) {
+      throw new RuntimeError(name, "Only instances have fields.");
+    }
+    return object;
+  }
+
+  public static Object set(Object object, Object value, Object cache, Token name) {
+    ((InlineCache) cache).set((LoxInstance) object, name, value);
+    return value;
+  }
+
+  public static Object indexGet(Object indexee, Object index, Token bracket) {
+    if (indexee instanceof LoxIndexable) {
+      return ((LoxIndexable) indexee).get(bracket, index);
+    }
+    return null;
+  }
+
+  /** The target of an index set, checked before the index is evaluated. */
+  public static Object indexable(Object indexee, Token bracket) {
+    if (!(indexee instanceof LoxIndexable)) {
+      throw new RuntimeError(bracket, "Variable is not indexable");
+    }
+    return indexee;
+  }
+
+  public static Object indexSet(Object indexee, Object index, Object value, Token bracket) {
+    ((LoxIndexable) indexee).set(bracket, index, value);
+    return value;
+  }
+
+  public static Object array(Object[] elements) {
+    return new LoxArray(elements);
+  }
+
+  private static void checkNumberOperands(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return;
+    throw new RuntimeError(operator, "Operands must be numbers.");
+  }
+}
@@ -0,0 +1,67 @@
+package org.lox.lox;
+
+/**
+ * A function whose body has been linked by {@link Linker}. Calls run the
+ * pre-linked code directly instead of visiting the declaration's statements.
+ */
+class LinkedFunction extends LoxFunction {
+
+  private final Interpreter interpreter;
+  final Linker.Body body;
+  // The parameter count, or -1 for a getter.
+  final int arity;
+
+  LinkedFunction(Interpreter interpreter, Stmt.Function declaration,
+                 Linker.Body body, Environment closure, boolean isInitializer) {
+    super(declaration, closure, isInitializer);
+    this.interpreter = interpreter;
+    this.body = body;
+    this.arity = declaration.parameters != null ? declaration.parameters.size() : -1;
+  }
+
+  @Override
+  LoxFunction bind(LoxInstance instance) {
+    Environment environment = new Environment(closure, 1);
+    environment.define("this", instance);
+    return new LinkedFunction(interpreter, declaration, body, environment, isInitializer);
+  }
+
+  @Override
+  Environment frame(LoxInstance receiver) {
+    Environment enclosing = closure;
+    if (receiver != null) {
+      enclosing = new Environment(closure, 1);
+      enclosing.define("this", receiver);
+    }
+    return new Environment(enclosing, body.slotCount);
+  }
+
+  @Override
+  Object run(Interpreter interpreter, Environment environment) {
+    return invoke(environment);
+  }
+
+  /**
+   * Runs the body in an environment that already holds the arguments. For a
+   * method, its enclosing environment holds 'this'. Tail calls the body
+   * ends in run here in turn, so they don't grow the Java stack.
+   */
+  Object invoke(Environment environment) {
+    LinkedFunction function = this;
+    for (;;) {
+      Object result = Linker.run(function.body.codes, environment);
+      if (result instanceof Linker.TailCall) {
+        Linker.TailCall call = (Linker.TailCall) result;
+        function = call.function;
+        environment = call.environment;
+        call.function = null;
+        call.environment = null;
+        continue;
+      }
+      if (result != Linker.NEXT) return result;
+
+      if (function.isInitializer) return environment.getAt(1, 0);
+      return null;
+    }
+  }
+}
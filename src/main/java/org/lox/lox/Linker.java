@@ -0,0 +1,1071 @@
+package org.lox.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lox.lox.TokenType.*;
+
+/**
+ * Closure-compilation engine, selected with {@code --engine=closure}. Each
+ * resolved Expr/Stmt is linked once into a tree of small Java objects; operators,
+ * resolved slots and constant operands are decided here rather than being
+ * re-dispatched on every evaluation like the visitor-based Interpreter does.
+ * Runtime scopes are the same slot Environments the Interpreter uses.
+ */
+class Linker implements Expr.Visitor<Linker.Node>, Stmt.Visitor<Linker.Code> {
+
+  /** A linked expression. */
+  abstract static class Node {
+    abstract Object eval(Environment env);
+  }
+
+  /**
+   * A linked statement. exec returns NEXT when control falls through to the
+   * following statement, or the value of a return statement it ran, so
+   * returns come back through ordinary method returns instead of unwinding
+   * an exception.
+   */
+  abstract static class Code {
+    abstract Object exec(Environment env);
+  }
+
+  static final Object NEXT = new Object();
+
+  /**
+   * What a body's exec returns when it ends in a tail call to a linked
+   * function: the callee and the environment holding its arguments, for
+   * LinkedFunction.invoke to run next instead of nesting the call. Each
+   * Linker has one, reused for every tail call.
+   */
+  static final class TailCall {
+    LinkedFunction function;
+    Environment environment;
+  }
+
+  private final TailCall tailCall = new TailCall();
+
+  private final Interpreter interpreter;
+  private final Map<String, Global> globals = new HashMap<>();
+  // Nesting of the code being linked; declarations at depth 0 are globals.
+  private int scopeDepth = 0;
+
+  Linker(Interpreter interpreter) {
+    this.interpreter = interpreter;
+    NativeFunctions.define((name, value) -> {
+      Global global = global(name);
+      global.value = value;
+      global.defined = true;
+    });
+  }
+
+  private Global global(String name) {
+    return globals.computeIfAbsent(name, Global::new);
+  }
+
+  void interpret(List<Stmt> statements) {
+    Code[] program = link(statements);
+    try {
+      for (Code code : program) {
+        code.exec(null);
+      }
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+    }
+  }
+
+  private Node link(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private Code link(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Code[] link(List<Stmt> statements) {
+    Code[] codes = new Code[statements.size()];
+    for (int i = 0; i < codes.length; i++) {
+      codes[i] = link(statements.get(i));
+    }
+    return codes;
+  }
+
+  private Node[] link(Expr[] exprs) {
+    Node[] nodes = new Node[exprs.length];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = link(exprs[i]);
+    }
+    return nodes;
+  }
+
+  static Object run(Code[] codes, Environment env) {
+    for (Code code : codes) {
+      Object result = code.exec(env);
+      if (result != NEXT) return result;
+    }
+    return NEXT;
+  }
+
+  /**
+   * The body of a function declaration, linked once and shared by every
+   * closure created from it.
+   */
+  static class Body {
+    final Code[] codes;
+    final int slotCount;
+
+    Body(Code[] codes, int slotCount) {
+      this.codes = codes;
+      this.slotCount = slotCount;
+    }
+  }
+
+  private Body body(Stmt.Function function) {
+    scopeDepth++;
+    Code[] codes = link(function.body);
+    scopeDepth--;
+    return new Body(codes, function.slotCount);
+  }
+
+  @Override
+  public Code visitBlockStmt(Stmt.Block stmt) {
+    scopeDepth++;
+    Code[] codes = link(stmt.statements);
+    scopeDepth--;
+    if (stmt.flat) {
+      return new Code() {
+        @Override
+        Object exec(Environment env) {
+          int size = env.size();
+          Object result = run(codes, env);
+          env.truncate(size);
+          return result;
+        }
+      };
+    }
+
+    int slotCount = stmt.slotCount;
+    return new Code() {
+      @Override
+      Object exec(Environment env) {
+        return run(codes, new Environment(env, slotCount));
+      }
+    };
+  }
+
+  @Override
+  public Code visitClassStmt(Stmt.Class stmt) {
+    Token name = stmt.name;
+    Global global = scopeDepth == 0 ? global(name.lexeme) : null;
+    Node superclassNode = stmt.superclass != null ? link(stmt.superclass) : null;
+
+    List<Stmt.Function> classMethodDecls = stmt.classMethods;
+    List<Stmt.Function> methodDecls = stmt.methods;
+    List<Body> classMethodBodies = new ArrayList<>();
+    for (Stmt.Function method : classMethodDecls) {
+      classMethodBodies.add(body(method));
+    }
+    List<Body> methodBodies = new ArrayList<>();
+    for (Stmt.Function method : methodDecls) {
+      methodBodies.add(body(method));
+    }
+
+    return new Code() {
+      @Override
+      Object exec(Environment env) {
+        int slot = -1;
+        if (global != null) {
+          global.value = null;
+          global.defined = true;
+        } else {
+          slot = env.define(name.lexeme, null);
+        }
+
+        Object superclass = null;
+        Environment methodEnv = env;
+        if (superclassNode != null) {
+          superclass = superclassNode.eval(env);
+          if (!(superclass instanceof LoxClass)) {
+            throw new RuntimeError(name, "Superclass must be a class");
+          }
+          methodEnv = new Environment(env, 1);
+          methodEnv.define("super", superclass);
+        }
+
+        SymbolMap<LoxFunction> classMethods = new SymbolMap<>(),
+            methods = new SymbolMap<>();
+        for (int i = 0; i < classMethodDecls.size(); i++) {
+          Stmt.Function method = classMethodDecls.get(i);
+          classMethods.put(method.name.symbol, new LinkedFunction(
+              interpreter, method, classMethodBodies.get(i), methodEnv, false));
+        }
+
+        LoxClass metaClass = new LoxClass(null, ((LoxClass) superclass),
+            name.lexeme + " metaClass", classMethods);
+
+        for (int i = 0; i < methodDecls.size(); i++) {
+          Stmt.Function method = methodDecls.get(i);
+          methods.put(method.name.symbol, new LinkedFunction(
+              interpreter, method, methodBodies.get(i), methodEnv,
+              method.name.symbol == Symbols.INIT));
+        }
+
+        LoxClass klass = new LoxClass(metaClass, ((LoxClass) superclass), name.lexeme, methods);
+        if (global != null) {
+          global.value = klass;
+        } else {
+          env.slots[slot] = klass;
+        }
+        return NEXT;
+      }
+    };
+  }
+
+  @Override
+  public Code visitExpressionStmt(Stmt.Expression stmt) {
+    Node expression = link(stmt.expression);
+    return new Code() {
+      @Override
+      Object exec(Environment env) {
+        expression.eval(env);
+        return NEXT;
+      }
+    };
+  }
+
+  @Override
+  public Code visitFunctionStmt(Stmt.Function stmt) {
+    Body body = body(stmt);
+    return define(stmt.name, new Node() {
+      @Override
+      Object eval(Environment env) {
+        return new LinkedFunction(interpreter, stmt, body, env, false);
+      }
+    });
+  }
+
+  @Override
+  public Code visitIfStmt(Stmt.If stmt) {
+    Node condition = link(stmt.condition);
+    Code thenBranch = link(stmt.thenBranch);
+    if (stmt.elseBranch == null) {
+      return new Code() {
+        @Override
+        Object exec(Environment env) {
+          return Interpreter.isTruthy(condition.eval(env)) ? thenBranch.exec(env) : NEXT;
+        }
+      };
+    }
+    Code elseBranch = link(stmt.elseBranch);
+    return new Code() {
+      @Override
+      Object exec(Environment env) {
+        if (Interpreter.isTruthy(condition.eval(env))) {
+          return thenBranch.exec(env);
+        }
+        return elseBranch.exec(env);
+      }
+    };
+  }
+
+  @Override
+  public Code visitWhileStmt(Stmt.While stmt) {
+    Node condition = link(stmt.condition);
+    Code body = link(stmt.body);
+    return new Code() {
+      @Override
+      Object exec(Environment env) {
+        while (Interpreter.isTruthy(condition.eval(env))) {
+          Object result = body.exec(env);
+          if (result != NEXT) return result;
+        }
+        return NEXT;
+      }
+    };
+  }
+
+  @Override
+  public Code visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) {
+      return new Code() {
+        @Override
+        Object exec(Environment env) {
+          return null;
+        }
+      };
+    }
+    Node value = stmt.tailCall ? linkCall((Expr.Call) stmt.value, true) : link(stmt.value);
+    return new Code() {
+      @Override
+      Object exec(Environment env) {
+        return value.eval(env);
+      }
+    };
+  }
+
+  @Override
+  public Code visitVarStmt(Stmt.Var stmt) {
+    Node initializer = stmt.initializer != null
+        ? link(stmt.initializer) : visitLiteralExpr(new Expr.Literal(null));
+    return define(stmt.name, initializer);
+  }
+
+  /** Declares a variable in the current scope, which may be the global one. */
+  private Code define(Token name, Node value) {
+    if (scopeDepth == 0) {
+      Global global = global(name.lexeme);
+      return new Code() {
+        @Override
+        Object exec(Environment env) {
+          global.value = value.eval(env);
+          global.defined = true;
+          return NEXT;
+        }
+      };
+    }
+    return new Code() {
+      @Override
+      Object exec(Environment env) {
+        env.define(name.lexeme, value.eval(env));
+        return NEXT;
+      }
+    };
+  }
+
+  @Override
+  public Node visitAssignExpr(Expr.Assign expr) {
+    Node value = link(expr.value);
+    Token name = expr.name;
+    int depth = expr.depth, slot = expr.slot;
+    switch (depth) {
+      case -1: {
+        Global global = global(name.lexeme);
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            Object v = value.eval(env);
+            if (!global.defined) throw undefinedVariable(name);
+            return global.value = v;
+          }
+        };
+      }
+      case 0:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return env.slots[slot] = value.eval(env);
+          }
+        };
+      case 1:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return env.enclosing.slots[slot] = value.eval(env);
+          }
+        };
+      default:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return env.ancestor(depth).slots[slot] = value.eval(env);
+          }
+        };
+    }
+  }
+
+  @Override
+  public Node visitBinaryExpr(Expr.Binary expr) {
+    Token operator = expr.operator;
+    Node left = link(expr.left);
+
+    // A literal number on the right is by far the most common constant
+    // operand (i < 10, n - 1, x * 2); fold it straight into the node.
+    if (expr.right instanceof Expr.Literal &&
+        ((Expr.Literal) expr.right).value instanceof Double) {
+      Node constant = linkConstantRight(operator, left,
+          (Double) ((Expr.Literal) expr.right).value);
+      if (constant != null) return constant;
+    }
+
+    Node right = link(expr.right);
+
+    switch (operator.type) {
+      case GREATER:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            Object l = left.eval(env), r = right.eval(env);
+            checkNumberOperands(operator, l, r);
+            return (double) l > (double) r;
+          }
+        };
+      case GREATER_EQUAL:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            Object l = left.eval(env), r = right.eval(env);
+            checkNumberOperands(operator, l, r);
+            return (double) l >= (double) r;
+          }
+        };
+      case LESS:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            Object l = left.eval(env), r = right.eval(env);
+            checkNumberOperands(operator, l, r);
+            return (double) l < (double) r;
+          }
+        };
+      case LESS_EQUAL:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            Object l = left.eval(env), r = right.eval(env);
+            checkNumberOperands(operator, l, r);
+            return (double) l <= (double) r;
+          }
+        };
+      case MINUS:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            Object l = left.eval(env), r = right.eval(env);
+            return checkNumber(operator, l) - checkNumber(operator, r);
+          }
+        };
+      case PLUS:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return add(operator, left.eval(env), right.eval(env));
+          }
+        };
+      case SLASH:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            Object l = left.eval(env), r = right.eval(env);
+            checkNumberOperands(operator, l, r);
+            if ((double) r == 0.0) throw new RuntimeError(operator, "division by zero.");
+            return (double) l / (double) r;
+          }
+        };
+      case STAR:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            Object l = left.eval(env), r = right.eval(env);
+            checkNumberOperands(operator, l, r);
+            return (double) l * (double) r;
+          }
+        };
+      case EXPONENT:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            Object l = left.eval(env), r = right.eval(env);
+            checkNumberOperands(operator, l, r);
+            return Math.pow((double) l, (double) r);
+          }
+        };
+      case MODULO:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            Object l = left.eval(env), r = right.eval(env);
+            checkNumberOperands(operator, l, r);
+            return Interpreter.modulo((double) l, (double) r);
+          }
+        };
+      case BANG_EQUAL:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return !Interpreter.isEqual(left.eval(env), right.eval(env));
+          }
+        };
+      case EQUAL_EQUAL:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return Interpreter.isEqual(left.eval(env), right.eval(env));
+          }
+        };
+      case COMMA:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            // discard the left, continue with the right.
+            left.eval(env);
+            return right.eval(env);
+          }
+        };
+    }
+
+    throw new IllegalStateException("Unknown binary operator " + operator.type);
+  }
+
+  private Node linkConstantRight(Token operator, Node left, double c) {
+    switch (operator.type) {
+      case GREATER:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return checkLeftNumber(operator, left.eval(env)) > c;
+          }
+        };
+      case GREATER_EQUAL:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return checkLeftNumber(operator, left.eval(env)) >= c;
+          }
+        };
+      case LESS:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return checkLeftNumber(operator, left.eval(env)) < c;
+          }
+        };
+      case LESS_EQUAL:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return checkLeftNumber(operator, left.eval(env)) <= c;
+          }
+        };
+      case MINUS:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return checkNumber(operator, left.eval(env)) - c;
+          }
+        };
+      case STAR:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return checkLeftNumber(operator, left.eval(env)) * c;
+          }
+        };
+      case MODULO:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return Interpreter.modulo(checkLeftNumber(operator, left.eval(env)), c);
+          }
+        };
+      case EXPONENT:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return Math.pow(checkLeftNumber(operator, left.eval(env)), c);
+          }
+        };
+      case SLASH:
+        if (c == 0.0) return null;
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return checkLeftNumber(operator, left.eval(env)) / c;
+          }
+        };
+      case PLUS: {
+        Double boxed = c;
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            Object l = left.eval(env);
+            if (l instanceof Double) return (double) l + c;
+            return add(operator, l, boxed);
+          }
+        };
+      }
+    }
+    return null;
+  }
+
+  private Object add(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) {
+      return (double) left + (double) right;
+    }
+
+    if (Rope.isString(left) && Rope.isString(right)) {
+      return Rope.concat((CharSequence) left, (CharSequence) right);
+    }
+
+    if (Rope.isString(left) && right instanceof Double) {
+      return Rope.concat((CharSequence) left, interpreter.stringify(right));
+    }
+
+    if (left instanceof Double && Rope.isString(right)) {
+      return Rope.concat(interpreter.stringify(left), (CharSequence) right);
+    }
+
+    throw new RuntimeError(operator,
+        "Operands must be two numbers or two strings.");
+  }
+
+  @Override
+  public Node visitCallExpr(Expr.Call expr) {
+    return linkCall(expr, false);
+  }
+
+  /** A call, or in tail position one that is handed back as a TailCall. */
+  private Node linkCall(Expr.Call expr, boolean tail) {
+    if (expr.callee instanceof Expr.Get) return linkInvoke(expr, (Expr.Get) expr.callee, tail);
+
+    Node callee = link(expr.callee);
+    Node[] arguments = link(expr.arguments.toArray(new Expr[0]));
+    Token paren = expr.paren;
+
+    return new Node() {
+      @Override
+      Object eval(Environment env) {
+        return call(callee.eval(env), arguments, env, paren, tail);
+      }
+    };
+  }
+
+  /**
+   * obj.name(args). A method runs with the receiver put straight into the
+   * scope above its parameters, without binding it first.
+   */
+  private Node linkInvoke(Expr.Call expr, Expr.Get get, boolean tail) {
+    Node object = link(get.object);
+    Node[] arguments = link(expr.arguments.toArray(new Expr[0]));
+    Token name = get.name;
+    InlineCache cache = get.cache;
+    Token paren = expr.paren;
+
+    return new Node() {
+      @Override
+      Object eval(Environment env) {
+        Object target = object.eval(env);
+
+        if (target instanceof LoxInstance) {
+          LoxFunction method = cache.method((LoxInstance) target, name);
+          if (method instanceof LinkedFunction &&
+              ((LinkedFunction) method).arity == arguments.length) {
+            LinkedFunction linked = (LinkedFunction) method;
+            Environment receiver = new Environment(linked.closure, 1);
+            receiver.define("this", target);
+            Environment environment = new Environment(receiver, linked.body.slotCount);
+            for (Node argument : arguments) {
+              environment.define(null, argument.eval(env));
+            }
+            return tail ? tailCall(linked, environment) : linked.invoke(environment);
+          }
+          if (method != null) {
+            List<Object> values = evaluate(arguments, env);
+            checkArity(method, values.size(), paren);
+            return method.callMethod(interpreter, (LoxInstance) target, values);
+          }
+        } else if (target instanceof LoxNative) {
+          return invoke(target, NativeMethod.of((LoxNative) target, name), arguments, env, paren);
+        }
+
+        return call(property(target, name, cache), arguments, env, paren, tail);
+      }
+    };
+  }
+
+  private Object call(Object function, Node[] arguments, Environment env, Token paren,
+                      boolean tail) {
+    // Calls between linked functions skip the argument list and write
+    // the arguments straight into the callee's parameter slots.
+    if (function instanceof LinkedFunction &&
+        ((LinkedFunction) function).arity == arguments.length) {
+      LinkedFunction linked = (LinkedFunction) function;
+      Environment environment = new Environment(linked.closure, linked.body.slotCount);
+      for (Node argument : arguments) {
+        environment.define(null, argument.eval(env));
+      }
+      return tail ? tailCall(linked, environment) : linked.invoke(environment);
+    }
+
+    if (arguments.length > 3) {
+      List<Object> values = evaluate(arguments, env);
+      return callable(function, values.size(), paren).call(interpreter, values);
+    }
+
+    // Natives, classes and the like take up to three arguments without a
+    // list.
+    Object a = arguments.length > 0 ? arguments[0].eval(env) : null;
+    Object b = arguments.length > 1 ? arguments[1].eval(env) : null;
+    Object c = arguments.length > 2 ? arguments[2].eval(env) : null;
+    LoxCallable callable = callable(function, arguments.length, paren);
+    switch (arguments.length) {
+      case 0: return callable.call0(interpreter);
+      case 1: return callable.call1(interpreter, a);
+      case 2: return callable.call2(interpreter, a, b);
+      default: return callable.call3(interpreter, a, b, c);
+    }
+  }
+
+  /** Calls a method on a native value without binding it. */
+  private Object invoke(Object receiver, NativeMethod<Object> method, Node[] arguments,
+                        Environment env, Token paren) {
+    if (arguments.length > 3) {
+      Object[] values = new Object[arguments.length];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = arguments[i].eval(env);
+      }
+      method.checkArity(values.length, paren);
+      return method.call(interpreter, receiver, values);
+    }
+
+    Object a = arguments.length > 0 ? arguments[0].eval(env) : null;
+    Object b = arguments.length > 1 ? arguments[1].eval(env) : null;
+    Object c = arguments.length > 2 ? arguments[2].eval(env) : null;
+    method.checkArity(arguments.length, paren);
+    switch (arguments.length) {
+      case 0: return method.call0(interpreter, receiver);
+      case 1: return method.call1(interpreter, receiver, a);
+      case 2: return method.call2(interpreter, receiver, a, b);
+      default: return method.call3(interpreter, receiver, a, b, c);
+    }
+  }
+
+  private static LoxCallable callable(Object function, int count, Token paren) {
+    if (!(function instanceof LoxCallable)) {
+      throw new RuntimeError(paren,
+          "Can only call functions and classes.");
+    }
+
+    LoxCallable callable = (LoxCallable) function;
+    checkArity(callable, count, paren);
+    return callable;
+  }
+
+  private TailCall tailCall(LinkedFunction function, Environment environment) {
+    tailCall.function = function;
+    tailCall.environment = environment;
+    return tailCall;
+  }
+
+  private static List<Object> evaluate(Node[] arguments, Environment env) {
+    List<Object> values = new ArrayList<>(arguments.length);
+    for (Node argument : arguments) {
+      values.add(argument.eval(env));
+    }
+    return values;
+  }
+
+  private static void checkArity(LoxCallable callable, int count, Token paren) {
+    if (count != callable.arity() && !callable.variadic()) {
+      throw new RuntimeError(paren, "Expected " +
+          callable.arity() + " arguments but got " +
+          count + ".");
+    }
+  }
+
+  @Override
+  public Node visitIndexGetExpr(Expr.IndexGet expr) {
+    Node indexee = link(expr.indexee);
+    Node index = link(expr.index);
+    Token bracket = expr.bracket;
+    return new Node() {
+      @Override
+      Object eval(Environment env) {
+        Object target = indexee.eval(env);
+        Object i = index.eval(env);
+        if (target instanceof LoxIndexable) {
+          return ((LoxIndexable) target).get(bracket, i);
+        }
+        return null;
+      }
+    };
+  }
+
+  @Override
+  public Node visitIndexSetExpr(Expr.IndexSet expr) {
+    Node indexee = link(expr.indexee);
+    Node index = link(expr.index);
+    Node value = link(expr.value);
+    Token bracket = expr.bracket;
+    return new Node() {
+      @Override
+      Object eval(Environment env) {
+        Object target = indexee.eval(env);
+        if (!(target instanceof LoxIndexable)) {
+          throw new RuntimeError(bracket, "Variable is not indexable");
+        }
+        Object i = index.eval(env);
+        Object v = value.eval(env);
+        ((LoxIndexable) target).set(bracket, i, v);
+        return v;
+      }
+    };
+  }
+
+  @Override
+  public Node visitArrayExpr(Expr.Array expr) {
+    Node[] elements = link(expr.elements.toArray(new Expr[0]));
+    return new Node() {
+      @Override
+      Object eval(Environment env) {
+        Object[] values = new Object[elements.length];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = elements[i].eval(env);
+        }
+        return new LoxArray(values);
+      }
+    };
+  }
+
+  @Override
+  public Node visitGetExpr(Expr.Get expr) {
+    Node object = link(expr.object);
+    Token name = expr.name;
+    InlineCache cache = expr.cache;
+    return new Node() {
+      @Override
+      Object eval(Environment env) {
+        return property(object.eval(env), name, cache);
+      }
+    };
+  }
+
+  private Object property(Object target, Token name, InlineCache cache) {
+    if (target instanceof LoxInstance) {
+      Object result = cache.get((LoxInstance) target, name);
+      if (result instanceof LoxFunction && ((LoxFunction) result).isGetter()) {
+        result = ((LoxFunction) result).call0(interpreter);
+      }
+      return result;
+    }
+
+    if (target instanceof LoxNative) {
+      return NativeMethod.get((LoxNative) target, name);
+    }
+
+    throw new RuntimeError(name,
+        "Only instances have properties.");
+  }
+
+  @Override
+  public Node visitGroupingExpr(Expr.Grouping expr) {
+    // Grouping only matters to the parser.
+    return link(expr.expression);
+  }
+
+  @Override
+  public Node visitLiteralExpr(Expr.Literal expr) {
+    Object value = expr.value;
+    return new Node() {
+      @Override
+      Object eval(Environment env) {
+        return value;
+      }
+    };
+  }
+
+  @Override
+  public Node visitLogicalExpr(Expr.Logical expr) {
+    Node left = link(expr.left);
+    Node right = link(expr.right);
+    if (expr.operator.type == OR) {
+      return new Node() {
+        @Override
+        Object eval(Environment env) {
+          Object l = left.eval(env);
+          return Interpreter.isTruthy(l) ? l : right.eval(env);
+        }
+      };
+    }
+    return new Node() {
+      @Override
+      Object eval(Environment env) {
+        Object l = left.eval(env);
+        return !Interpreter.isTruthy(l) ? l : right.eval(env);
+      }
+    };
+  }
+
+  @Override
+  public Node visitSetExpr(Expr.Set expr) {
+    Node object = link(expr.object);
+    Node value = link(expr.value);
+    Token name = expr.name;
+    InlineCache cache = expr.cache;
+    return new Node() {
+      @Override
+      Object eval(Environment env) {
+        Object target = object.eval(env);
+
+        if (!(target instanceof LoxInstance)) {
+          throw new RuntimeError(name, "Only instances have fields.");
+        }
+
+        Object v = value.eval(env);
+        cache.set((LoxInstance) target, name, v);
+        return v;
+      }
+    };
+  }
+
+  @Override
+  public Node visitSuperExpr(Expr.Super expr) {
+    int depth = expr.depth, slot = expr.slot;
+    Token method = expr.method;
+    return new Node() {
+      @Override
+      Object eval(Environment env) {
+        LoxClass superclass = (LoxClass) env.getAt(depth, slot);
+        // "this" is always one level nearer than "super"'s environment.
+        LoxInstance object = (LoxInstance) env.getAt(depth - 1, 0);
+        LoxFunction function = superclass.findMethod(object, method.symbol);
+
+        if (function == null) {
+          throw new RuntimeError(method,
+              "Undefined property '" + method.lexeme + "'.");
+        }
+
+        if (function.isGetter()) {
+          return function.call0(interpreter);
+        }
+
+        return function;
+      }
+    };
+  }
+
+  @Override
+  public Node visitThisExpr(Expr.This expr) {
+    return variable(expr.keyword, expr.depth, expr.slot);
+  }
+
+  @Override
+  public Node visitUnaryExpr(Expr.Unary expr) {
+    Token operator = expr.operator;
+    Node right = link(expr.right);
+
+    switch (operator.type) {
+      case BANG:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return !Interpreter.isTruthy(right.eval(env));
+          }
+        };
+      case MINUS:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return -checkNumber(operator, right.eval(env));
+          }
+        };
+      case PLUS_PLUS: case MINUS_MINUS: {
+        if (!(expr.right instanceof Expr.Variable)) {
+          return new Node() {
+            @Override
+            Object eval(Environment env) {
+              right.eval(env);
+              throw new RuntimeError(operator,
+                  "Operand of increment op must be a variable.");
+            }
+          };
+        }
+        Expr.Variable var = (Expr.Variable) expr.right;
+        double delta = operator.type == PLUS_PLUS ? 1 : -1;
+        boolean postfix = expr.postfix;
+        int depth = var.depth, slot = var.slot;
+        if (depth == -1) {
+          Global global = global(var.name.lexeme);
+          return new Node() {
+            @Override
+            Object eval(Environment env) {
+              double value = checkNumber(operator, right.eval(env));
+              double nextValue = value + delta;
+              global.value = nextValue;
+              return postfix ? value : nextValue;
+            }
+          };
+        }
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            double value = checkNumber(operator, right.eval(env));
+            double nextValue = value + delta;
+            env.ancestor(depth).slots[slot] = nextValue;
+            return postfix ? value : nextValue;
+          }
+        };
+      }
+    }
+
+    throw new IllegalStateException("Unknown unary operator " + operator.type);
+  }
+
+  @Override
+  public Node visitVariableExpr(Expr.Variable expr) {
+    return variable(expr.name, expr.depth, expr.slot);
+  }
+
+  private Node variable(Token name, int depth, int slot) {
+    switch (depth) {
+      case -1: {
+        Global global = global(name.lexeme);
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            if (!global.defined) throw undefinedVariable(name);
+            return global.value;
+          }
+        };
+      }
+      case 0:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return env.slots[slot];
+          }
+        };
+      case 1:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return env.enclosing.slots[slot];
+          }
+        };
+      case 2:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return env.enclosing.enclosing.slots[slot];
+          }
+        };
+      default:
+        return new Node() {
+          @Override
+          Object eval(Environment env) {
+            return env.ancestor(depth).slots[slot];
+          }
+        };
+    }
+  }
+
+  private static RuntimeError undefinedVariable(Token name) {
+    return new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+  }
+
+  private static double checkNumber(Token operator, Object operand) {
+    if (operand instanceof Double) return (double) operand;
+    throw new RuntimeError(operator, "Operand must be a number.");
+  }
+
+  /** The left operand check for a binary operator whose right is a number. */
+  private static double checkLeftNumber(Token operator, Object left) {
+    if (left instanceof Double) return (double) left;
+    throw new RuntimeError(operator, "Operands must be numbers.");
+  }
+
+  private static void checkNumberOperands(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return;
+    throw new RuntimeError(operator, "Operands must be numbers.");
+  }
+}
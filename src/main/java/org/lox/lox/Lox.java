@@ -10,16 +10,43 @@ import java.util.List;
 
 public class Lox {
 
+  private enum Engine {
+    TREE,
+    CLOSURE,
+    VM
+  }
+
+  private static final boolean REPORT_OPTIMIZATIONS = Boolean.getBoolean("lox.optimizer.report");
+
   private static final Interpreter interpreter = new Interpreter();
+  private static Engine engine = Engine.TREE;
+  private static VM vm;
+  private static Linker linker;
 
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
 
   public static void main(String[] args) throws Exception {
-    if (args.length > 1) {
-      System.out.println("usage: lox [script]");
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    int first = 0;
+    if (args.length > 0 && args[0].startsWith("--engine=")) {
+      String name = args[0].substring("--engine=".length());
+      if (name.equals("vm")) {
+        engine = Engine.VM;
+        vm = new VM(interpreter);
+      } else if (name.equals("closure")) {
+        engine = Engine.CLOSURE;
+        linker = new Linker(interpreter);
+      } else if (!name.equals("tree")) {
+        System.out.println("usage: lox [--engine=tree|closure|vm] [script]");
+        return;
+      }
+      first = 1;
+    }
+
+    if (args.length - first > 1) {
+      System.out.println("usage: lox [--engine=tree|closure|vm] [script]");
+    } else if (args.length - first == 1) {
+      runFile(args[first]);
     } else {
       runPrompt();
     }
@@ -55,13 +82,32 @@ public class Lox {
     // Stop if there was a syntax error.
     if (hadError) return;
 
-    Resolver resolver = new Resolver(interpreter);
+    Resolver resolver = new Resolver();
     resolver.resolve(statements);
 
     // Stop if there was a resolution error.
     if (hadError) return;
 
-    interpreter.interpret(statements);
+    Optimizer optimizer = new Optimizer();
+    if (REPORT_OPTIMIZATIONS) {
+      int before = Optimizer.count(statements);
+      optimizer.optimize(statements);
+      System.err.println("Optimizer removed " +
+          (before - Optimizer.count(statements)) + " nodes.");
+    } else {
+      optimizer.optimize(statements);
+    }
+
+    switch (engine) {
+      case VM:
+        vm.interpret(statements);
+        break;
+      case CLOSURE:
+        linker.interpret(statements);
+        break;
+      default:
+        interpreter.interpret(statements);
+    }
   }
 
   static void error(int line, String message) {
@@ -84,8 +130,13 @@ public class Lox {
   }
 
   static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() +
-            "\n[line " + error.token.line + "]");
+    // Errors from inside native methods carry no token to place them.
+    if (error.token == null) {
+      System.err.println(error.getMessage());
+    } else {
+      System.err.println(error.getMessage() +
+              "\n[line " + error.token.line + "]");
+    }
     hadRuntimeError = true;
   }
 }
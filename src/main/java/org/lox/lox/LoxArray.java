@@ -1,132 +1,814 @@
 package org.lox.lox;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Comparator;
 
-public class LoxArray implements LoxIndexable {
+/**
+ * A Lox array. Elements are stored unboxed in a double[] while they are
+ * all numbers, or a boolean[] while they are all booleans; the first
+ * element of any other type moves the array to an Object[]. An empty
+ * array takes whichever storage fits the next element added.
+ *
+ * The storage is a ring buffer, so elements are added and removed at
+ * either end in constant time: unshift, shift and peek work at the front,
+ * push, popBack and peekBack at the back. pop takes the first element, as
+ * it always has, but returns nil.
+ *
+ * view() and slice() make arrays over part of another's storage without
+ * copying it. A view uses the same Storage as the array it came
+ * from, so each sees the other's element writes, however the storage is
+ * copied later. A slice gets a Storage of its own over the same Java
+ * arrays, and whichever Storage is written to first copies what it covers,
+ * so the slice acts as a separate array. An array that changes length
+ * moves its elements to storage of its own first, leaving any views and
+ * slices as they were.
+ */
+public class LoxArray implements LoxIndexable, LoxNative {
 
-  private List<Object> elements;
-  private final Map<String, LoxCallable> methods;
+  private static final int NUMBERS = 0;
+  private static final int BOOLEANS = 1;
+  private static final int OBJECTS = 2;
 
-  LoxArray(List<Object> elements) {
-    this.elements = elements;
-    methods = createMethods(this);
+  private static final int MIN_CAPACITY = 4;
+
+  private Storage storage;
+  // Where the first element is, counted in slots from storage.base.
+  private int head;
+  private int size;
+
+  private LoxArray() {}
+
+  /** Creates an array of the elements, taking over the Java array. */
+  LoxArray(Object[] elements) {
+    int kind = kindOf(elements);
+    size = elements.length;
+    if (kind == OBJECTS) {
+      storage = new Storage(elements);
+      return;
+    }
+
+    storage = new Storage(kind, Math.max(size, MIN_CAPACITY));
+    if (kind == NUMBERS) {
+      for (int i = 0; i < size; i++) storage.numbers[i] = (double) elements[i];
+    } else {
+      for (int i = 0; i < size; i++) storage.booleans[i] = (boolean) elements[i];
+    }
+  }
+
+  /**
+   * The elements of an array and its views. A Storage made for a slice
+   * covers extent slots of another's Java arrays from base, wrapping around
+   * at capacity; the arrays using it count their heads from base. Any other
+   * Storage covers all its slots from 0.
+   */
+  private static final class Storage {
+    // Which of the three arrays below holds the elements.
+    int kind;
+    double[] numbers;
+    boolean[] booleans;
+    Object[] objects;
+    int capacity;
+    int base = 0;
+    int extent;
+    // How many LoxArrays use this Storage.
+    int arrays = 1;
+    // Shared by the Storages that hold the same Java arrays, or null while
+    // only this one does.
+    Sharers sharers;
+
+    Storage(int kind, int capacity) {
+      this.kind = kind;
+      this.capacity = capacity;
+      this.extent = capacity;
+      switch (kind) {
+        case NUMBERS: numbers = new double[capacity]; break;
+        case BOOLEANS: booleans = new boolean[capacity]; break;
+        default: objects = new Object[capacity];
+      }
+    }
+
+    Storage(Object[] objects) {
+      this.kind = OBJECTS;
+      this.objects = objects;
+      this.capacity = objects.length;
+      this.extent = capacity;
+    }
+
+    /** Another Storage over extent of these slots from base, for a slice. */
+    private Storage(Storage from, int base, int extent) {
+      kind = from.kind;
+      numbers = from.numbers;
+      booleans = from.booleans;
+      objects = from.objects;
+      capacity = from.capacity;
+      this.base = base;
+      this.extent = extent;
+      if (from.sharers == null) from.sharers = new Sharers();
+      from.sharers.count++;
+      sharers = from.sharers;
+    }
+
+    Storage share(int base, int extent) {
+      return new Storage(this, base, extent);
+    }
+
+    /** Whether another Storage might see a write to these Java arrays. */
+    boolean isShared() {
+      return sharers != null && sharers.count > 1;
+    }
+
+    /** Whether one array has all the slots to itself. */
+    boolean isOwned() {
+      return arrays == 1 && !isShared() && base == 0 && extent == capacity;
+    }
+
+    // Slot offset from base, where offset is below twice the capacity.
+    int slot(int offset) {
+      int slot = base + offset;
+      return slot < capacity ? slot : slot - capacity;
+    }
+
+    Object get(int slot) {
+      switch (kind) {
+        case NUMBERS: return numbers[slot];
+        case BOOLEANS: return booleans[slot];
+        default: return objects[slot];
+      }
+    }
+
+    /** Stores a value the storage's kind can hold. */
+    void set(int slot, Object value) {
+      switch (kind) {
+        case NUMBERS: numbers[slot] = (double) value; break;
+        case BOOLEANS: booleans[slot] = (boolean) value; break;
+        default: objects[slot] = value;
+      }
+    }
+
+    void move(int source, int target) {
+      switch (kind) {
+        case NUMBERS: numbers[target] = numbers[source]; break;
+        case BOOLEANS: booleans[target] = booleans[source]; break;
+        default: objects[target] = objects[source];
+      }
+    }
+
+    /**
+     * Copies the slots this Storage covers into new Java arrays of a kind,
+     * from slot 0 on, so offsets from base still find the same elements.
+     */
+    void copy(int kind) {
+      int length = base == 0 && extent == capacity ? capacity : extent;
+      // Up to two runs, as the slots may wrap around.
+      int first = Math.min(extent, capacity - base);
+      if (kind == this.kind) {
+        switch (kind) {
+          case NUMBERS: {
+            double[] next = new double[length];
+            System.arraycopy(numbers, base, next, 0, first);
+            System.arraycopy(numbers, 0, next, first, extent - first);
+            numbers = next;
+            break;
+          }
+          case BOOLEANS: {
+            boolean[] next = new boolean[length];
+            System.arraycopy(booleans, base, next, 0, first);
+            System.arraycopy(booleans, 0, next, first, extent - first);
+            booleans = next;
+            break;
+          }
+          default: {
+            Object[] next = new Object[length];
+            System.arraycopy(objects, base, next, 0, first);
+            System.arraycopy(objects, 0, next, first, extent - first);
+            objects = next;
+          }
+        }
+      } else {
+        Object[] boxed = new Object[length];
+        for (int i = 0; i < extent; i++) boxed[i] = get(slot(i));
+        this.kind = kind;
+        objects = boxed;
+        numbers = null;
+        booleans = null;
+      }
+      capacity = length;
+      base = 0;
+      release();
+    }
+
+    /** Stops sharing the Java arrays with other Storages. */
+    void release() {
+      if (sharers != null) {
+        sharers.count--;
+        sharers = null;
+      }
+    }
   }
 
-  private static Map<String, LoxCallable> createMethods(LoxArray array) {
-    Map<String, LoxCallable> methods = new HashMap<>();
+  private static final class Sharers {
+    int count = 1;
+  }
 
-    methods.put("add", new LoxCallable() {
+  private static int kindOf(Object[] elements) {
+    if (elements.length == 0) return NUMBERS;
+    int kind = kindOf(elements[0]);
+    for (Object element : elements) {
+      if (kindOf(element) != kind) return OBJECTS;
+    }
+    return kind;
+  }
+
+  private static int kindOf(Object value) {
+    if (value instanceof Double) return NUMBERS;
+    if (value instanceof Boolean) return BOOLEANS;
+    return OBJECTS;
+  }
+
+  /** A method every array has. */
+  private abstract static class Method extends NativeMethod<LoxArray> {
+    Method(int arity, boolean variadic) {
+      super(arity, variadic);
+    }
+  }
+
+  private static final SymbolMap<Method> METHODS = new SymbolMap<>();
+
+  private static void define(String name, Method method) {
+    METHODS.put(Symbols.intern(name), method);
+  }
+
+  static {
+    define("add", new Method(0, true) {
       @Override
-      public int arity() {
-        return 0;
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        for (Object argument : arguments) {
+          array.add(argument);
+        }
+        return arguments.length > 0;
       }
 
       @Override
-      public boolean variadic() {
+      Object call1(Interpreter interpreter, LoxArray array, Object a) {
+        array.add(a);
         return true;
       }
+    });
+    define("push", new Method(1, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call1(interpreter, array, arguments[0]);
+      }
+
+      @Override
+      Object call1(Interpreter interpreter, LoxArray array, Object a) {
+        array.add(a);
+        return null;
+      }
+    });
+    define("unshift", new Method(1, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call1(interpreter, array, arguments[0]);
+      }
 
       @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        return array.elements.addAll(arguments);
+      Object call1(Interpreter interpreter, LoxArray array, Object a) {
+        array.addFirst(a);
+        return null;
       }
     });
-    methods.put("pop", new LoxCallable() {
+    define("shift", new Method(0, false) {
       @Override
-      public int arity() {
-        return 0;
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call0(interpreter, array);
       }
 
       @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        try {
-          array.elements.remove(0);
-        } catch (IndexOutOfBoundsException e) {
-          return null;
-        }
+      Object call0(Interpreter interpreter, LoxArray array) {
+        return array.size > 0 ? array.removeAt(0) : null;
+      }
+    });
+    define("peek", new Method(0, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call0(interpreter, array);
+      }
+
+      @Override
+      Object call0(Interpreter interpreter, LoxArray array) {
+        return array.size > 0 ? array.element(0) : null;
+      }
+    });
+    // pop takes the first element, like shift, but returns nil. Scripts
+    // use it to drain queues, so it keeps doing that.
+    define("pop", new Method(0, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call0(interpreter, array);
+      }
+
+      @Override
+      Object call0(Interpreter interpreter, LoxArray array) {
+        if (array.size > 0) array.removeAt(0);
         return null;
       }
     });
-    methods.put("remove", new LoxCallable() {
+    define("peekBack", new Method(0, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call0(interpreter, array);
+      }
+
+      @Override
+      Object call0(Interpreter interpreter, LoxArray array) {
+        return array.size > 0 ? array.element(array.size - 1) : null;
+      }
+    });
+    define("popBack", new Method(0, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call0(interpreter, array);
+      }
+
+      @Override
+      Object call0(Interpreter interpreter, LoxArray array) {
+        return array.size > 0 ? array.removeAt(array.size - 1) : null;
+      }
+    });
+    define("remove", new Method(1, false) {
       @Override
-      public int arity() {
-        return 1;
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call1(interpreter, array, arguments[0]);
       }
 
       @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        try {
-          int idx = ((Double) arguments.get(0)).intValue();
-          return array.elements.remove(idx);
-        } catch (NumberFormatException e) {
-          throw new RuntimeError(null, "Array index must be numeric.");
-        } catch (IndexOutOfBoundsException e) {
+      Object call1(Interpreter interpreter, LoxArray array, Object a) {
+        int idx = ((Double) a).intValue();
+        if (idx < 0 || idx >= array.size) {
           throw new RuntimeError(null, "Array index out of bounds.");
         }
+        return array.removeAt(idx);
+      }
+    });
+    define("length", new Method(0, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call0(interpreter, array);
+      }
+
+      @Override
+      Object call0(Interpreter interpreter, LoxArray array) {
+        return (double) array.length();
+      }
+    });
+    define("isEmpty", new Method(0, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call0(interpreter, array);
+      }
+
+      @Override
+      Object call0(Interpreter interpreter, LoxArray array) {
+        return array.size == 0;
+      }
+    });
+    define("indexOf", new Method(1, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call1(interpreter, array, arguments[0]);
+      }
+
+      @Override
+      Object call1(Interpreter interpreter, LoxArray array, Object a) {
+        return (double) array.indexOf(a);
+      }
+    });
+    define("slice", new Method(2, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call2(interpreter, array, arguments[0], arguments[1]);
+      }
+
+      @Override
+      Object call2(Interpreter interpreter, LoxArray array, Object a, Object b) {
+        int from = array.bound(a);
+        int to = array.bound(b);
+        return array.view(from, Math.max(from, to), true);
+      }
+    });
+    define("view", new Method(2, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call2(interpreter, array, arguments[0], arguments[1]);
+      }
+
+      @Override
+      Object call2(Interpreter interpreter, LoxArray array, Object a, Object b) {
+        int from = array.bound(a);
+        int to = array.bound(b);
+        return array.view(from, Math.max(from, to), false);
+      }
+    });
+    define("sort", new Method(0, true) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        if (arguments.length > 1) {
+          throw new RuntimeError(null, "Expected 0 or 1 arguments but got " +
+              arguments.length + ".");
+        }
+        array.sort(interpreter, arguments.length == 1 ? callback(arguments[0], 2) : null);
+        return array;
+      }
+    });
+    define("forEach", new Method(1, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call1(interpreter, array, arguments[0]);
+      }
+
+      @Override
+      Object call1(Interpreter interpreter, LoxArray array, Object a) {
+        LoxCallable callback = callback(a, 1);
+        for (int i = 0; i < array.size; i++) {
+          callback.call1(interpreter, array.element(i));
+        }
+        return null;
+      }
+    });
+    define("map", new Method(1, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call1(interpreter, array, arguments[0]);
+      }
+
+      @Override
+      Object call1(Interpreter interpreter, LoxArray array, Object a) {
+        return array.map(interpreter, callback(a, 1));
+      }
+    });
+    define("filter", new Method(1, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call1(interpreter, array, arguments[0]);
+      }
+
+      @Override
+      Object call1(Interpreter interpreter, LoxArray array, Object a) {
+        LoxCallable callback = callback(a, 1);
+        LoxArray result = new LoxArray(new Object[0]);
+        for (int i = 0; i < array.size; i++) {
+          Object element = array.element(i);
+          if (Interpreter.isTruthy(callback.call1(interpreter, element))) result.add(element);
+        }
+        return result;
       }
     });
-    methods.put("length", new LoxCallable() {
+    define("reduce", new Method(2, false) {
       @Override
-      public int arity() {
-        return 0;
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call2(interpreter, array, arguments[0], arguments[1]);
       }
 
       @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        return new Double(array.length());
+      Object call2(Interpreter interpreter, LoxArray array, Object a, Object b) {
+        return array.reduce(interpreter, callback(a, 2), b);
       }
     });
-    methods.put("isEmpty", new LoxCallable() {
+    define("parallelMap", new Method(1, false) {
       @Override
-      public int arity() {
-        return 0;
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call1(interpreter, array, arguments[0]);
       }
 
       @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        return array.elements.isEmpty();
+      Object call1(Interpreter interpreter, LoxArray array, Object a) {
+        LoxCallable callback = callback(a, 1);
+        if (ParallelArrays.canSplit(array, callback)) {
+          return ParallelArrays.map(interpreter, array, callback);
+        }
+        return array.map(interpreter, callback);
       }
     });
+    // parallelReduce(callback, initial, combiner) folds each piece of the
+    // array from initial and merges the pieces' results with combiner, so
+    // initial has to leave combiner's other argument as it is.
+    define("parallelReduce", new Method(3, false) {
+      @Override
+      Object call(Interpreter interpreter, LoxArray array, Object[] arguments) {
+        return call3(interpreter, array, arguments[0], arguments[1], arguments[2]);
+      }
 
-    return methods;
+      @Override
+      Object call3(Interpreter interpreter, LoxArray array, Object a, Object b, Object c) {
+        LoxCallable callback = callback(a, 2);
+        LoxCallable combiner = callback(c, 2);
+        if (ParallelArrays.canSplit(array, callback) && ParallelArrays.canSplit(array, combiner)) {
+          return ParallelArrays.reduce(interpreter, array, callback, b, combiner);
+        }
+        return array.reduce(interpreter, callback, b);
+      }
+    });
+  }
+
+  /** A function passed to an array method, checked to take this many arguments. */
+  private static LoxCallable callback(Object value, int arity) {
+    if (!(value instanceof LoxCallable)) {
+      throw new RuntimeError(null, "Can only call functions and classes.");
+    }
+
+    LoxCallable callback = (LoxCallable) value;
+    if (callback.arity() != arity && !callback.variadic()) {
+      throw new RuntimeError(null, "Expected " +
+          callback.arity() + " arguments but got " +
+          arity + ".");
+    }
+    return callback;
+  }
+
+  @Override
+  public NativeMethod<?> method(Token name) {
+    Method method = METHODS.get(name.symbol);
+    if (method == null) throw new RuntimeError(name, "Undefined method.");
+    return method;
   }
 
   @Override
   public Object get(Token token, Object index) {
     int i = indexToInteger(token, index);
-    try {
-      return elements.get(i);
-    } catch (IndexOutOfBoundsException e) {
-      throw new RuntimeError(token, "Array index out of bounds.");
-    }
+    if (i >= size) throw new RuntimeError(token, "Array index out of bounds.");
+    return element(i);
   }
 
   @Override
   public void set(Token token, Object index, Object value) {
     int i = indexToInteger(token, index);
-    try {
-      elements.set(i, value);
-    } catch (IndexOutOfBoundsException e) {
-      throw new RuntimeError(token, "Array index out of bounds.");
-    }
+    if (i >= size) throw new RuntimeError(token, "Array index out of bounds.");
+    store(i, value);
   }
 
   @Override
   public int length() {
-    return elements.size();
+    return size;
+  }
+
+  /** The element at an index already checked to be in bounds. */
+  Object element(int index) {
+    Storage storage = this.storage;
+    return storage.get(storage.slot(head + index));
+  }
+
+  /** Adds an element at the end. */
+  void add(Object value) {
+    if (!storage.isOwned()) detach();
+    fit(value);
+    size++;
+    store(size - 1, value);
+  }
+
+  /** Adds an element at the front. */
+  void addFirst(Object value) {
+    if (!storage.isOwned()) detach();
+    fit(value);
+    head = head == 0 ? storage.capacity - 1 : head - 1;
+    size++;
+    store(0, value);
+  }
+
+  /**
+   * Removes the element at an index already checked to be in bounds,
+   * closing the gap from whichever end is nearer. Taking either end moves
+   * nothing.
+   */
+  Object removeAt(int index) {
+    if (!storage.isOwned()) detach();
+    Object value = element(index);
+    if (index < size / 2) {
+      for (int i = index; i > 0; i--) move(i - 1, i);
+      clear(0);
+      head = slot(1);
+    } else {
+      for (int i = index; i < size - 1; i++) move(i + 1, i);
+      clear(size - 1);
+    }
+    size--;
+    if (size == 0) head = 0;
+    return value;
+  }
+
+  /** Makes room for one more element and storage that can hold it. */
+  private void fit(Object value) {
+    if (size == 0) {
+      int kind = kindOf(value);
+      if (kind != storage.kind) reset(kind);
+    } else if (storage.kind != OBJECTS && kindOf(value) != storage.kind) {
+      storage.copy(OBJECTS);
+    }
+    if (size == storage.capacity) grow();
+  }
+
+  // Elements live in a ring buffer: the one at index i is in slot
+  // head + i from the storage's base, wrapping around at the end of the
+  // storage array.
+  private int slot(int index) {
+    return storage.slot(head + index);
+  }
+
+  private void store(int index, Object value) {
+    Storage storage = this.storage;
+    if (storage.kind != OBJECTS && kindOf(value) != storage.kind) {
+      // Moving to an Object[] copies, which also leaves any slices be.
+      storage.copy(OBJECTS);
+    } else if (storage.isShared()) {
+      storage.copy(storage.kind);
+    }
+    storage.set(storage.slot(head + index), value);
+  }
+
+  private void move(int from, int to) {
+    storage.move(slot(from), slot(to));
+  }
+
+  /** Lets go of a removed object so it can be collected. */
+  private void clear(int index) {
+    if (storage.kind == OBJECTS) storage.objects[slot(index)] = null;
+  }
+
+  /** Empties the array and gives it new storage of another kind. */
+  private void reset(int kind) {
+    leave();
+    storage = new Storage(kind, MIN_CAPACITY);
+    head = 0;
+  }
+
+  private void grow() {
+    relocate(Math.max(MIN_CAPACITY, storage.capacity * 2));
+  }
+
+  /** Moves the elements to new storage of a capacity, starting at slot 0. */
+  private void relocate(int grown) {
+    Storage next = new Storage(storage.kind, grown);
+    switch (next.kind) {
+      case NUMBERS:
+        for (int i = 0; i < size; i++) next.numbers[i] = storage.numbers[slot(i)];
+        break;
+      case BOOLEANS:
+        for (int i = 0; i < size; i++) next.booleans[i] = storage.booleans[slot(i)];
+        break;
+      default:
+        for (int i = 0; i < size; i++) next.objects[i] = storage.objects[slot(i)];
+    }
+    leave();
+    storage = next;
+    head = 0;
+  }
+
+  /** Stops using the storage, which its Java arrays may outlive. */
+  private void leave() {
+    if (--storage.arrays == 0) storage.release();
+  }
+
+  /** Copies the elements into storage no other array or slice uses. */
+  private void detach() {
+    relocate(Math.max(MIN_CAPACITY, size + (size >> 1)));
+  }
+
+  LoxArray map(Interpreter interpreter, LoxCallable callback) {
+    LoxArray result = new LoxArray(new Object[0]);
+    for (int i = 0; i < size; i++) {
+      result.add(callback.call1(interpreter, element(i)));
+    }
+    return result;
+  }
+
+  Object reduce(Interpreter interpreter, LoxCallable callback, Object initial) {
+    Object result = initial;
+    for (int i = 0; i < size; i++) {
+      result = callback.call2(interpreter, result, element(i));
+    }
+    return result;
   }
 
-  public List<Object> getElements() {
-    return elements;
+  /** The index of the first element equal to a value, or -1. */
+  int indexOf(Object value) {
+    Storage storage = this.storage;
+    switch (storage.kind) {
+      case NUMBERS: {
+        if (!(value instanceof Double)) return -1;
+        // Same as Double.equals(), which == uses.
+        long bits = Double.doubleToLongBits((double) value);
+        for (int i = 0; i < size; i++) {
+          if (Double.doubleToLongBits(storage.numbers[slot(i)]) == bits) return i;
+        }
+        return -1;
+      }
+      case BOOLEANS: {
+        if (!(value instanceof Boolean)) return -1;
+        boolean b = (boolean) value;
+        for (int i = 0; i < size; i++) {
+          if (storage.booleans[slot(i)] == b) return i;
+        }
+        return -1;
+      }
+      default:
+        for (int i = 0; i < size; i++) {
+          if (Interpreter.isEqual(storage.objects[slot(i)], value)) return i;
+        }
+        return -1;
+    }
   }
 
-  public Object getMethod(Token name) {
-    if (methods.containsKey(name.lexeme)) {
-      return methods.get(name.lexeme);
+  /**
+   * An array of the elements from one index up to another, both in bounds,
+   * in the same storage: a view that shares element writes with this
+   * array, or with copy set a slice that doesn't.
+   */
+  LoxArray view(int from, int to, boolean copy) {
+    LoxArray view = new LoxArray();
+    view.size = to - from;
+    if (to == from) {
+      view.storage = new Storage(storage.kind, 0);
+    } else if (copy) {
+      view.storage = storage.share(slot(from), to - from);
+    } else {
+      view.storage = storage;
+      storage.arrays++;
+      int head = this.head + from;
+      view.head = head < storage.capacity ? head : head - storage.capacity;
     }
-    throw new RuntimeError(name, "Undefined method.");
+    return view;
+  }
+
+  /**
+   * Sorts the elements in place. Without a comparator, numbers and strings
+   * sort in their natural order and anything else is an error. A
+   * comparator returns a number below, at or above zero.
+   */
+  void sort(Interpreter interpreter, LoxCallable comparator) {
+    if (size < 2) return;
+    Storage storage = this.storage;
+    if (storage.isShared()) storage.copy(storage.kind);
+    // Sort the slots in place, which views share, unless they wrap around.
+    int start = slot(0);
+    boolean wraps = start + size > storage.capacity;
+
+    Comparator<Object> order;
+    if (comparator != null) {
+      order = (a, b) -> {
+        Object result = comparator.call2(interpreter, a, b);
+        if (!(result instanceof Double)) {
+          throw new RuntimeError(null, "Comparator must return a number.");
+        }
+        return Double.compare((double) result, 0.0);
+      };
+    } else if (storage.kind == NUMBERS) {
+      if (!wraps) {
+        Arrays.sort(storage.numbers, start, start + size);
+        return;
+      }
+      order = (a, b) -> Double.compare((double) a, (double) b);
+    } else {
+      for (int i = 0; i < size; i++) {
+        if (!Rope.isString(element(i))) {
+          throw new RuntimeError(null, "Can only sort numbers or strings without a comparator.");
+        }
+      }
+      order = (a, b) -> a.toString().compareTo(b.toString());
+      if (!wraps) {
+        Arrays.sort(storage.objects, start, start + size, order);
+        return;
+      }
+    }
+
+    Object[] sorted = new Object[size];
+    for (int i = 0; i < size; i++) sorted[i] = element(i);
+    try {
+      Arrays.sort(sorted, order);
+    } catch (IllegalArgumentException e) {
+      throw new RuntimeError(null, "Comparator is inconsistent.");
+    }
+    if (size == sorted.length) {
+      for (int i = 0; i < size; i++) store(i, sorted[i]);
+      return;
+    }
+    // The comparator changed the array's length; put back what was sorted.
+    reset(kindOf(sorted));
+    size = 0;
+    for (Object element : sorted) add(element);
+  }
+
+  /** A slice bound: an integer index, wrapped like any index if negative, clamped to the length. */
+  private int bound(Object value) {
+    if (!(value instanceof Double) || (double) value != Math.floor((double) value)) {
+      throw new RuntimeError(null, "Slice bounds must be integers.");
+    }
+    return Math.min(size, wrap((int) (double) value));
+  }
+
+  /** Wraps a negative index around the end of the array, like Python. */
+  private int wrap(int index) {
+    if (index >= 0) return index;
+    return size == 0 ? 0 : Math.floorMod(index, size);
   }
 
   /**
@@ -141,8 +823,7 @@ public class LoxArray implements LoxIndexable {
       double idx = ((Double) index).doubleValue();
       // All number literals in Lox are doubles, have to do a little hack
       if (idx == Math.floor(idx)) {
-        // Allow negative indexing like Python
-        return (idx < 0) ? Math.floorMod((int)idx, elements.size()) : (int)idx;
+        return wrap((int)idx);
       }
     }
     throw new RuntimeError(token, "Array index must be an integer.");
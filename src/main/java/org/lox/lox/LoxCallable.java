@@ -1,5 +1,7 @@
 package org.lox.lox;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 interface LoxCallable {
@@ -8,4 +10,35 @@ interface LoxCallable {
     return false;
   }
   Object call(Interpreter interpreter, List<Object> arguments);
+
+  // Entry points for call sites that pass a fixed number of arguments, so
+  // callables that override them need no argument list. Callers check the
+  // arity first. call above stays the fallback for any other count.
+
+  default Object call0(Interpreter interpreter) {
+    return call(interpreter, Collections.emptyList());
+  }
+
+  default Object call1(Interpreter interpreter, Object a) {
+    return call(interpreter, Collections.singletonList(a));
+  }
+
+  default Object call2(Interpreter interpreter, Object a, Object b) {
+    return call(interpreter, Arrays.asList(a, b));
+  }
+
+  default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    return call(interpreter, Arrays.asList(a, b, c));
+  }
+
+  /** Calls through the fixed-arity entry point that fits, if there is one. */
+  default Object call(Interpreter interpreter, Object[] arguments) {
+    switch (arguments.length) {
+      case 0: return call0(interpreter);
+      case 1: return call1(interpreter, arguments[0]);
+      case 2: return call2(interpreter, arguments[0], arguments[1]);
+      case 3: return call3(interpreter, arguments[0], arguments[1], arguments[2]);
+      default: return call(interpreter, Arrays.asList(arguments));
+    }
+  }
 }
@@ -1,39 +1,53 @@
 package org.lox.lox;
 
 import java.util.List;
-import java.util.Map;
 
 public class LoxClass extends LoxInstance implements LoxCallable {
 
   final String name;
   final LoxClass superclass;
-  private final Map<String, LoxFunction> methods;
+  private final SymbolMap<LoxFunction> methods;
+  // Every method the class responds to, with the inherited ones copied down
+  // from the superclass, so a lookup is one probe however deep the
+  // hierarchy is.
+  private final SymbolMap<LoxFunction> vtable;
+  // Where the layouts of this class's instances grow from.
+  final Shape instanceShape = new Shape();
 
   public LoxClass(LoxClass metaClass,
                   LoxClass superclass,
                   String name,
-                  Map<String, LoxFunction> methods) {
+                  SymbolMap<LoxFunction> methods) {
     super(metaClass);
     this.superclass = superclass;
     this.name = name;
     this.methods = methods;
-  }
-
-  LoxFunction findMethod(LoxInstance instance, String name) {
-    if (methods.containsKey(name)) {
-      return methods.get(name).bind(instance);
-    }
 
     if (superclass != null) {
-      return superclass.findMethod(instance, name);
+      vtable = new SymbolMap<>(superclass.vtable);
+      vtable.putAll(methods);
+    } else {
+      vtable = new SymbolMap<>(methods);
     }
+  }
 
-    return null;
+  LoxFunction findMethod(LoxInstance instance, int name) {
+    LoxFunction method = lookUpMethod(name);
+    return method != null ? method.bind(instance) : null;
+  }
+
+  /** The method a name resolves to on this class, before binding. */
+  LoxFunction lookUpMethod(int name) {
+    return vtable.get(name);
+  }
+
+  LoxFunction initializer() {
+    return methods.get(Symbols.INIT);
   }
 
   @Override
   public int arity() {
-    LoxFunction initializer = methods.get("init");
+    LoxFunction initializer = initializer();
     if (initializer == null) return 0;
     return initializer.arity();
   }
@@ -41,9 +55,39 @@ public class LoxClass extends LoxInstance implements LoxCallable {
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
     LoxInstance instance = new LoxInstance(this);
-    LoxFunction initializer = methods.get("init");
+    LoxFunction initializer = initializer();
+    if (initializer != null) {
+      initializer.callMethod(interpreter, instance, arguments);
+    }
+    return instance;
+  }
+
+  @Override
+  public Object call0(Interpreter interpreter) {
+    return construct(interpreter, 0, null, null, null);
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object a) {
+    return construct(interpreter, 1, a, null, null);
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    return construct(interpreter, 2, a, b, null);
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    return construct(interpreter, 3, a, b, c);
+  }
+
+  /** Makes an instance and runs the initializer on it with the first count of a, b and c. */
+  private Object construct(Interpreter interpreter, int count, Object a, Object b, Object c) {
+    LoxInstance instance = new LoxInstance(this);
+    LoxFunction initializer = initializer();
     if (initializer != null) {
-      initializer.bind(instance).call(interpreter, arguments);
+      initializer.callMethod(interpreter, instance, count, a, b, c);
     }
     return instance;
   }
@@ -4,9 +4,9 @@ import java.util.List;
 
 class LoxFunction implements LoxCallable {
 
-  private final Stmt.Function declaration;
-  private final Environment closure;
-  private final boolean isInitializer;
+  final Stmt.Function declaration;
+  final Environment closure;
+  final boolean isInitializer;
 
   public LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
     this.declaration = declaration;
@@ -19,7 +19,7 @@ class LoxFunction implements LoxCallable {
   }
 
   LoxFunction bind(LoxInstance instance) {
-    Environment environment = new Environment(closure);
+    Environment environment = new Environment(closure, 1);
     environment.define("this", instance);
     return new LoxFunction(declaration, environment, isInitializer);
   }
@@ -31,21 +31,160 @@ class LoxFunction implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
-    Environment environment = new Environment(closure);
-    if (declaration.parameters != null) {
-      for (int i = 0; i < declaration.parameters.size(); i++) {
-        environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
+    Environment environment = frame(null);
+    if (arguments != null) {
+      for (Object argument : arguments) {
+        environment.define(null, argument);
       }
     }
+    return run(interpreter, environment);
+  }
 
-    try {
-      interpreter.executeBlock(declaration.body, environment);
-    } catch (ReturnJump returnValue) {
-      return returnValue.value;
+  @Override
+  public Object call0(Interpreter interpreter) {
+    return run(interpreter, frame(null));
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object a) {
+    Environment environment = frame(null);
+    environment.define(null, a);
+    return run(interpreter, environment);
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    Environment environment = frame(null);
+    environment.define(null, a);
+    environment.define(null, b);
+    return run(interpreter, environment);
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    Environment environment = frame(null);
+    environment.define(null, a);
+    environment.define(null, b);
+    environment.define(null, c);
+    return run(interpreter, environment);
+  }
+
+  /** Calls this method on a receiver without binding it first. */
+  Object callMethod(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+    Environment environment = frame(receiver);
+    for (Object argument : arguments) {
+      environment.define(null, argument);
     }
+    return run(interpreter, environment);
+  }
+
+  /**
+   * {@link #callMethod} with the first count of a, b and c as arguments,
+   * for callers that have no list to hand.
+   */
+  Object callMethod(Interpreter interpreter, LoxInstance receiver, int count,
+                    Object a, Object b, Object c) {
+    Environment environment = frame(receiver);
+    if (count > 0) environment.define(null, a);
+    if (count > 1) environment.define(null, b);
+    if (count > 2) environment.define(null, c);
+    return run(interpreter, environment);
+  }
 
-    if (isInitializer) return closure.getAt(0, "this");
-    return null;
+  /**
+   * A fresh environment for one call, for the caller to define the
+   * arguments into in order. A method called on a receiver gets the scope
+   * holding 'this' above it.
+   */
+  Environment frame(LoxInstance receiver) {
+    Environment enclosing = closure;
+    if (receiver != null) {
+      enclosing = new Environment(closure, 1);
+      enclosing.define("this", receiver);
+    }
+    return new Environment(enclosing, declaration.slotCount);
+  }
+
+  /**
+   * Runs the body in an environment from {@link #frame} that holds the
+   * arguments, then any chain of tail calls it ends in, one after the other
+   * in this loop so the Java stack stays flat. A function that tail calls
+   * itself gets its Environment back for the next round unless a closure
+   * might still see it.
+   */
+  Object run(Interpreter interpreter, Environment environment) {
+    LoxFunction function = this;
+    for (;;) {
+      // Interpreted right here rather than in a helper method: every Java
+      // frame between one Lox call and the next costs recursion depth.
+      Object result = function.compiled(interpreter, environment);
+      if (result == JitRuntime.DEOPT) {
+        if (interpreter.executeBody(function.declaration.body, environment)) {
+          result = interpreter.takeReturnValue();
+        } else {
+          result = function.isInitializer ? environment.getAt(1, 0) : null;
+        }
+      }
+      if (result != Interpreter.TAIL_CALL) return result;
+
+      LoxFunction next = interpreter.tailFunction;
+      environment = next.tailFrame(interpreter, function, environment);
+      function = next;
+    }
+  }
+
+  /**
+   * The environment for the tail call the interpreter has pending to this
+   * function, holding its arguments. Kept out of run() so that run's Java
+   * frame stays small.
+   */
+  private Environment tailFrame(Interpreter interpreter, LoxFunction caller,
+                                Environment environment) {
+    LoxInstance receiver = interpreter.tailReceiver;
+    List<Object> arguments = interpreter.tailArguments;
+    interpreter.tailFunction = null;
+    interpreter.tailReceiver = null;
+    interpreter.tailArguments = null;
+
+    if (receiver == null && declaration == caller.declaration &&
+        closure == environment.enclosing && !caller.declaration.captured) {
+      environment.clear();
+    } else {
+      environment = frame(receiver);
+    }
+    for (Object argument : arguments) {
+      environment.define(null, argument);
+    }
+    return environment;
+  }
+
+  /**
+   * Runs the compiled body if there is one, compiling it once the function
+   * is hot. Returns DEOPT when the call has to be interpreted instead.
+   */
+  private Object compiled(Interpreter interpreter, Environment environment) {
+    // Profile calls per declaration, since methods are bound afresh on
+    // every access; hot ones get compiled to JVM bytecode. The compiled
+    // code reads the arguments from the parameter slots.
+    JitFunction jit = declaration.jit;
+    if (interpreter.worker) {
+      // Worker threads run code that is already compiled, but leave
+      // profiling and compiling to the main thread.
+      return jit != null ? jit.invoke(interpreter, environment.enclosing, environment.slots)
+          : JitRuntime.DEOPT;
+    }
+    if (jit == null && ++declaration.calls == JitCompiler.THRESHOLD) {
+      jit = declaration.jit = JitCompiler.compile(declaration, isInitializer, environment.slots, null);
+    }
+    if (jit == null) return JitRuntime.DEOPT;
+
+    Object result = jit.invoke(interpreter, environment.enclosing, environment.slots);
+    if (result == JitRuntime.DEOPT) {
+      // A guard failed. Recompile without the broken assumption and
+      // interpret this call.
+      declaration.jit = JitCompiler.compile(declaration, isInitializer, environment.slots, jit);
+    }
+    return result;
   }
 
   @Override
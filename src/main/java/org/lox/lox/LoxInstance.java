@@ -1,25 +1,41 @@
 package org.lox.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
 
+  private static final Object[] NO_VALUES = new Object[0];
+
   protected LoxClass klass;
-  protected final Map<String, Object> fields = new HashMap<>();
+  // Fields live in a flat array laid out by a shape shared with the other
+  // instances of the class.
+  Shape shape;
+  Object[] values;
 
-  LoxInstance() {}
+  LoxInstance() {
+    shape = new Shape();
+    values = NO_VALUES;
+  }
 
   LoxInstance(LoxClass klass) {
     this.klass = klass;
+    if (klass != null) {
+      shape = klass.instanceShape;
+      int size = shape.expectedSize();
+      values = size == 0 ? NO_VALUES : new Object[size];
+    } else {
+      shape = new Shape();
+      values = NO_VALUES;
+    }
   }
 
   Object get(Token name) {
-    if (fields.containsKey(name.lexeme)) {
-      return fields.get(name.lexeme);
+    int index = shape.indexOf(name.symbol);
+    if (index != -1) {
+      return values[index];
     }
 
-    LoxFunction method = klass.findMethod(this, name.lexeme);
+    LoxFunction method = klass.findMethod(this, name.symbol);
     if (method != null) return method;
 
     throw new RuntimeError(name,
@@ -27,7 +43,20 @@ public class LoxInstance {
   }
 
   void set(Token name, Object value) {
-    fields.put(name.lexeme, value);
+    int index = shape.indexOf(name.symbol);
+    if (index == -1) {
+      transition(shape.with(name.symbol));
+      index = shape.size() - 1;
+    }
+    values[index] = value;
+  }
+
+  /** Moves to a shape with more fields, making room for their values. */
+  void transition(Shape next) {
+    shape = next;
+    if (values.length < next.size()) {
+      values = Arrays.copyOf(values, Math.max(next.expectedSize(), next.size()));
+    }
   }
 
   @Override
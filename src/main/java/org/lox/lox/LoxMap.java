@@ -0,0 +1,314 @@
+package org.lox.lox;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A Lox map, made by Map(). Keys are compared the way == compares them, so
+ * numbers, strings, booleans and nil match by value and instances by
+ * identity. Indexing with a key that isn't there gives nil.
+ *
+ * Entries sit in parallel arrays in the order they were added, and an
+ * open-addressed index of positions into them is probed linearly. While
+ * every key is a number the keys are kept unboxed in a double[]. Removing
+ * an entry leaves a hole that the next rehash squeezes out.
+ */
+final class LoxMap implements LoxIndexable, LoxNative {
+
+  private static final int MIN_CAPACITY = 8;
+
+  // Index slots that hold no entry: never used, or whose entry was removed.
+  private static final int EMPTY = -1;
+  private static final int REMOVED = -2;
+
+  // The value of a removed entry.
+  private static final Object DELETED = new Object();
+
+  private int[] index;
+  // Keys are in numberKeys while all are numbers, in objectKeys after.
+  private double[] numberKeys;
+  private Object[] objectKeys;
+  private Object[] values;
+  // Entries used so far, removed ones included.
+  private int count = 0;
+  private int size = 0;
+
+  LoxMap() {
+    allocate(MIN_CAPACITY, true);
+  }
+
+  private void allocate(int capacity, boolean numbers) {
+    index = new int[capacity];
+    Arrays.fill(index, EMPTY);
+    // Keep a quarter of the index empty so probes stay short.
+    int entries = capacity * 3 / 4;
+    numberKeys = numbers ? new double[entries] : null;
+    objectKeys = numbers ? null : new Object[entries];
+    values = new Object[entries];
+  }
+
+  @Override
+  public Object get(Token token, Object key) {
+    int slot = find(canonical(key));
+    return slot == -1 ? null : values[index[slot]];
+  }
+
+  @Override
+  public void set(Token token, Object key, Object value) {
+    put(key, value);
+  }
+
+  @Override
+  public int length() {
+    return size;
+  }
+
+  boolean containsKey(Object key) {
+    return find(canonical(key)) != -1;
+  }
+
+  boolean containsKey(double key) {
+    return numberKeys != null
+        ? find(Double.doubleToLongBits(key)) != -1
+        : find((Object) key) != -1;
+  }
+
+  void put(Object key, Object value) {
+    key = canonical(key);
+    if (numberKeys != null) {
+      if (key instanceof Double) {
+        put((double) key, value);
+        return;
+      }
+      generalize();
+    }
+
+    int slot = find(key);
+    if (slot != -1) {
+      values[index[slot]] = value;
+      return;
+    }
+    int entry = insert(hash(key), value);
+    objectKeys[entry] = key;
+  }
+
+  /** Puts a number key without boxing it while all keys are numbers. */
+  void put(double key, Object value) {
+    if (numberKeys == null) {
+      put((Object) key, value);
+      return;
+    }
+
+    long bits = Double.doubleToLongBits(key);
+    int slot = find(bits);
+    if (slot != -1) {
+      values[index[slot]] = value;
+      return;
+    }
+    int entry = insert(hash(bits), value);
+    numberKeys[entry] = key;
+  }
+
+  /** Adds an entry for a key known to be missing, leaving the caller to store the key. */
+  private int insert(int hash, Object value) {
+    if (count == values.length) rehash();
+    int mask = index.length - 1;
+    int slot = hash & mask;
+    while (index[slot] != EMPTY) slot = (slot + 1) & mask;
+
+    index[slot] = count;
+    values[count] = value;
+    size++;
+    return count++;
+  }
+
+  /** Removes a key, returning its value, or nil if it wasn't there. */
+  Object remove(Object key) {
+    int slot = find(canonical(key));
+    if (slot == -1) return null;
+
+    int entry = index[slot];
+    Object value = values[entry];
+    index[slot] = REMOVED;
+    values[entry] = DELETED;
+    if (objectKeys != null) objectKeys[entry] = null;
+    size--;
+    return value;
+  }
+
+  // Entries by position, in the order they were added. Positions up to
+  // end() may hold removed entries, which isLive() tells apart.
+
+  int end() {
+    return count;
+  }
+
+  boolean isLive(int entry) {
+    return values[entry] != DELETED;
+  }
+
+  /** Whether every key is a number, kept unboxed for numberKeyAt(). */
+  boolean hasNumberKeys() {
+    return numberKeys != null;
+  }
+
+  double numberKeyAt(int entry) {
+    return numberKeys[entry];
+  }
+
+  Object keyAt(int entry) {
+    return numberKeys != null ? (Object) numberKeys[entry] : objectKeys[entry];
+  }
+
+  Object valueAt(int entry) {
+    return values[entry];
+  }
+
+  /** The index slot holding a canonical key, or -1. */
+  private int find(Object key) {
+    if (numberKeys != null) {
+      return key instanceof Double ? find(Double.doubleToLongBits((double) key)) : -1;
+    }
+
+    int mask = index.length - 1;
+    for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+      int entry = index[slot];
+      if (entry == EMPTY) return -1;
+      if (entry >= 0 && Objects.equals(objectKeys[entry], key)) return slot;
+    }
+  }
+
+  /** The index slot holding a number key, given by its bits, while all keys are numbers. */
+  private int find(long bits) {
+    int mask = index.length - 1;
+    for (int slot = hash(bits) & mask; ; slot = (slot + 1) & mask) {
+      int entry = index[slot];
+      if (entry == EMPTY) return -1;
+      if (entry >= 0 && Double.doubleToLongBits(numberKeys[entry]) == bits) return slot;
+    }
+  }
+
+  /** Moves the keys to an Object[], which holds anything. */
+  private void generalize() {
+    objectKeys = new Object[numberKeys.length];
+    for (int i = 0; i < count; i++) {
+      if (isLive(i)) objectKeys[i] = numberKeys[i];
+    }
+    numberKeys = null;
+  }
+
+  /** Rebuilds the table with room to grow and without removed entries. */
+  private void rehash() {
+    double[] oldNumbers = numberKeys;
+    Object[] oldObjects = objectKeys;
+    Object[] oldValues = values;
+    int oldCount = count;
+
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3 / 4 < size * 2) capacity *= 2;
+    allocate(capacity, oldNumbers != null);
+    count = 0;
+    size = 0;
+
+    for (int i = 0; i < oldCount; i++) {
+      if (oldValues[i] == DELETED) continue;
+      if (oldNumbers != null) {
+        put(oldNumbers[i], oldValues[i]);
+      } else {
+        put(oldObjects[i], oldValues[i]);
+      }
+    }
+  }
+
+  /** Strings compare by their text, so a Rope key is looked up flattened. */
+  private static Object canonical(Object key) {
+    return key instanceof Rope ? key.toString() : key;
+  }
+
+  private static int hash(Object key) {
+    if (key instanceof Double) return hash(Double.doubleToLongBits((double) key));
+    return spread(key == null ? 0 : key.hashCode());
+  }
+
+  private static int hash(long bits) {
+    return spread((int) (bits ^ (bits >>> 32)));
+  }
+
+  // Integral doubles differ only in their high bits, so mix those down
+  // into the low bits the index uses.
+  private static int spread(int h) {
+    h *= 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  /** A method every map has. */
+  private abstract static class Method extends NativeMethod<LoxMap> {
+    Method(int arity) {
+      super(arity, false);
+    }
+
+    @Override
+    Object call(Interpreter interpreter, LoxMap map, Object[] arguments) {
+      switch (arguments.length) {
+        case 0: return call0(interpreter, map);
+        default: return call1(interpreter, map, arguments[0]);
+      }
+    }
+  }
+
+  private static final SymbolMap<Method> METHODS = new SymbolMap<>();
+
+  private static void define(String name, Method method) {
+    METHODS.put(Symbols.intern(name), method);
+  }
+
+  static {
+    define("keys", new Method(0) {
+      @Override
+      Object call0(Interpreter interpreter, LoxMap map) {
+        Object[] keys = new Object[map.size];
+        int n = 0;
+        for (int i = 0; i < map.count; i++) {
+          if (map.isLive(i)) keys[n++] = map.keyAt(i);
+        }
+        return new LoxArray(keys);
+      }
+    });
+    define("values", new Method(0) {
+      @Override
+      Object call0(Interpreter interpreter, LoxMap map) {
+        Object[] values = new Object[map.size];
+        int n = 0;
+        for (int i = 0; i < map.count; i++) {
+          if (map.isLive(i)) values[n++] = map.values[i];
+        }
+        return new LoxArray(values);
+      }
+    });
+    define("size", new Method(0) {
+      @Override
+      Object call0(Interpreter interpreter, LoxMap map) {
+        return (double) map.size;
+      }
+    });
+    define("has", new Method(1) {
+      @Override
+      Object call1(Interpreter interpreter, LoxMap map, Object a) {
+        return map.containsKey(a);
+      }
+    });
+    define("remove", new Method(1) {
+      @Override
+      Object call1(Interpreter interpreter, LoxMap map, Object a) {
+        return map.remove(a);
+      }
+    });
+  }
+
+  @Override
+  public NativeMethod<?> method(Token name) {
+    Method method = METHODS.get(name.symbol);
+    if (method == null) throw new RuntimeError(name, "Undefined method.");
+    return method;
+  }
+}
@@ -0,0 +1,9 @@
+package org.lox.lox;
+
+/** A Lox value implemented in Java, with methods but no fields. */
+interface LoxNative {
+
+  /** The method a name refers to. Throws if there is none. */
+  NativeMethod<?> method(Token name);
+
+}
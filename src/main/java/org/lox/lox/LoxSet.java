@@ -0,0 +1,209 @@
+package org.lox.lox;
+
+/**
+ * A Lox set, made by Set(a, b, ...). Elements match the way == compares
+ * them, as keys of a {@link LoxMap} do, and are kept in the order they were
+ * added. Indexing gives whether an element is in the set; assigning a
+ * truthy value to an index adds it and a falsey one removes it.
+ *
+ * union, intersect and difference make a new set. While every element
+ * involved is a number they work on unboxed doubles throughout.
+ */
+final class LoxSet implements LoxIndexable, LoxNative {
+
+  private final LoxMap elements = new LoxMap();
+
+  @Override
+  public Object get(Token token, Object element) {
+    return elements.containsKey(element);
+  }
+
+  @Override
+  public void set(Token token, Object element, Object value) {
+    if (Interpreter.isTruthy(value)) {
+      add(element);
+    } else {
+      remove(element);
+    }
+  }
+
+  @Override
+  public int length() {
+    return elements.length();
+  }
+
+  /** Adds an element, returning false if it was already there. */
+  boolean add(Object element) {
+    if (elements.containsKey(element)) return false;
+    elements.put(element, Boolean.TRUE);
+    return true;
+  }
+
+  /** Removes an element, returning false if it wasn't there. */
+  boolean remove(Object element) {
+    if (!elements.containsKey(element)) return false;
+    elements.remove(element);
+    return true;
+  }
+
+  boolean contains(Object element) {
+    return elements.containsKey(element);
+  }
+
+  // Elements by position, as for LoxMap entries.
+
+  int end() {
+    return elements.end();
+  }
+
+  boolean isLive(int entry) {
+    return elements.isLive(entry);
+  }
+
+  Object elementAt(int entry) {
+    return elements.keyAt(entry);
+  }
+
+  private void addAll(LoxSet other) {
+    LoxMap from = other.elements;
+    boolean numbers = from.hasNumberKeys();
+    for (int i = 0; i < from.end(); i++) {
+      if (!from.isLive(i)) continue;
+      if (numbers) {
+        elements.put(from.numberKeyAt(i), Boolean.TRUE);
+      } else {
+        elements.put(from.keyAt(i), Boolean.TRUE);
+      }
+    }
+  }
+
+  LoxSet union(LoxSet other) {
+    LoxSet result = new LoxSet();
+    result.addAll(this);
+    result.addAll(other);
+    return result;
+  }
+
+  LoxSet intersect(LoxSet other) {
+    return filter(other, true);
+  }
+
+  LoxSet difference(LoxSet other) {
+    return filter(other, false);
+  }
+
+  /** The elements of this set that are, or aren't, in the other. */
+  private LoxSet filter(LoxSet other, boolean in) {
+    LoxSet result = new LoxSet();
+    LoxMap from = elements;
+    if (from.hasNumberKeys()) {
+      for (int i = 0; i < from.end(); i++) {
+        if (!from.isLive(i)) continue;
+        double element = from.numberKeyAt(i);
+        if (other.elements.containsKey(element) == in) {
+          result.elements.put(element, Boolean.TRUE);
+        }
+      }
+      return result;
+    }
+
+    for (int i = 0; i < from.end(); i++) {
+      if (!from.isLive(i)) continue;
+      Object element = from.keyAt(i);
+      if (other.elements.containsKey(element) == in) {
+        result.elements.put(element, Boolean.TRUE);
+      }
+    }
+    return result;
+  }
+
+  /** The set a bulk operation was given, checked. */
+  private static LoxSet set(Object argument) {
+    if (argument instanceof LoxSet) return (LoxSet) argument;
+    throw new RuntimeError(null, "Argument must be a set.");
+  }
+
+  /** A method every set has. */
+  private abstract static class Method extends NativeMethod<LoxSet> {
+    Method(int arity) {
+      super(arity, false);
+    }
+
+    @Override
+    Object call(Interpreter interpreter, LoxSet set, Object[] arguments) {
+      switch (arguments.length) {
+        case 0: return call0(interpreter, set);
+        default: return call1(interpreter, set, arguments[0]);
+      }
+    }
+  }
+
+  private static final SymbolMap<Method> METHODS = new SymbolMap<>();
+
+  private static void define(String name, Method method) {
+    METHODS.put(Symbols.intern(name), method);
+  }
+
+  static {
+    define("add", new Method(1) {
+      @Override
+      Object call1(Interpreter interpreter, LoxSet set, Object a) {
+        return set.add(a);
+      }
+    });
+    define("has", new Method(1) {
+      @Override
+      Object call1(Interpreter interpreter, LoxSet set, Object a) {
+        return set.contains(a);
+      }
+    });
+    define("remove", new Method(1) {
+      @Override
+      Object call1(Interpreter interpreter, LoxSet set, Object a) {
+        return set.remove(a);
+      }
+    });
+    define("size", new Method(0) {
+      @Override
+      Object call0(Interpreter interpreter, LoxSet set) {
+        return (double) set.length();
+      }
+    });
+    define("values", new Method(0) {
+      @Override
+      Object call0(Interpreter interpreter, LoxSet set) {
+        Object[] values = new Object[set.length()];
+        int n = 0;
+        for (int i = 0; i < set.end(); i++) {
+          if (set.isLive(i)) values[n++] = set.elementAt(i);
+        }
+        return new LoxArray(values);
+      }
+    });
+    define("union", new Method(1) {
+      @Override
+      Object call1(Interpreter interpreter, LoxSet set, Object a) {
+        return set.union(set(a));
+      }
+    });
+    define("intersect", new Method(1) {
+      @Override
+      Object call1(Interpreter interpreter, LoxSet set, Object a) {
+        return set.intersect(set(a));
+      }
+    });
+    define("difference", new Method(1) {
+      @Override
+      Object call1(Interpreter interpreter, LoxSet set, Object a) {
+        return set.difference(set(a));
+      }
+    });
+  }
+
+  @Override
+  public NativeMethod<?> method(Token name) {
+    Method method = METHODS.get(name.symbol);
+    if (method == null) throw new RuntimeError(name, "Undefined method.");
+    return method;
+  }
+}
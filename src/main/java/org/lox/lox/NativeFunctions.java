@@ -3,13 +3,20 @@ package org.lox.lox;
 import java.util.List;
 import java.util.Scanner;
 import java.util.StringJoiner;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 public class NativeFunctions {
   public static void define(Environment env) {
-    env.define("clock", clock);
-    env.define("log", log);
-    env.define("input", input);
+    define(env::define);
+  }
+
+  static void define(BiConsumer<String, Object> define) {
+    define.accept("clock", clock);
+    define.accept("log", log);
+    define.accept("input", input);
+    define.accept("Map", map);
+    define.accept("Set", set);
   }
 
   private final static LoxCallable clock = new LoxCallable() {
@@ -20,6 +27,11 @@ public class NativeFunctions {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+      return call0(interpreter);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
       return (double)System.currentTimeMillis() / 1000.0;
     }
   };
@@ -43,6 +55,50 @@ public class NativeFunctions {
       System.out.println(j.toString());
       return null;
     }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+      System.out.println(interpreter.stringify(a));
+      return null;
+    }
+  };
+
+  private final static LoxCallable map = new LoxCallable() {
+    @Override
+    public int arity() {
+      return 0;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      return call0(interpreter);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+      return new LoxMap();
+    }
+  };
+
+  private final static LoxCallable set = new LoxCallable() {
+    @Override
+    public int arity() {
+      return 0;
+    }
+
+    @Override
+    public boolean variadic() {
+      return true;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      LoxSet set = new LoxSet();
+      for (Object argument : arguments) {
+        set.add(argument);
+      }
+      return set;
+    }
   };
 
   private final static LoxCallable input = new LoxCallable() {
@@ -0,0 +1,114 @@
+package org.lox.lox;
+
+import java.util.List;
+
+/**
+ * A method of a value implemented in Java, such as an array. One instance
+ * serves every value of the type and is handed its receiver on each call,
+ * so a value costs nothing beyond its own state until a method is taken
+ * off it as a value.
+ */
+abstract class NativeMethod<T> {
+  private final int arity;
+  private final boolean variadic;
+
+  NativeMethod(int arity, boolean variadic) {
+    this.arity = arity;
+    this.variadic = variadic;
+  }
+
+  /**
+   * The method a name refers to on a receiver, typed for calling with the
+   * receiver as a plain Object.
+   */
+  @SuppressWarnings("unchecked")
+  static NativeMethod<Object> of(LoxNative receiver, Token name) {
+    return (NativeMethod<Object>) receiver.method(name);
+  }
+
+  /** The method a name refers to, bound to the receiver. */
+  static LoxCallable get(LoxNative receiver, Token name) {
+    return new Bound(receiver, of(receiver, name));
+  }
+
+  int arity() {
+    return arity;
+  }
+
+  boolean variadic() {
+    return variadic;
+  }
+
+  /** Same check, and same message, as for any other callable. */
+  void checkArity(int count, Token paren) {
+    if (count != arity && !variadic) {
+      throw new RuntimeError(paren, "Expected " +
+          arity + " arguments but got " +
+          count + ".");
+    }
+  }
+
+  abstract Object call(Interpreter interpreter, T receiver, Object[] arguments);
+
+  Object call0(Interpreter interpreter, T receiver) {
+    return call(interpreter, receiver, new Object[0]);
+  }
+
+  Object call1(Interpreter interpreter, T receiver, Object a) {
+    return call(interpreter, receiver, new Object[] {a});
+  }
+
+  Object call2(Interpreter interpreter, T receiver, Object a, Object b) {
+    return call(interpreter, receiver, new Object[] {a, b});
+  }
+
+  Object call3(Interpreter interpreter, T receiver, Object a, Object b, Object c) {
+    return call(interpreter, receiver, new Object[] {a, b, c});
+  }
+
+  /** A method taken off its receiver as a value. */
+  private static final class Bound implements LoxCallable {
+    private final Object receiver;
+    private final NativeMethod<Object> method;
+
+    Bound(Object receiver, NativeMethod<Object> method) {
+      this.receiver = receiver;
+      this.method = method;
+    }
+
+    @Override
+    public int arity() {
+      return method.arity();
+    }
+
+    @Override
+    public boolean variadic() {
+      return method.variadic();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      return method.call(interpreter, receiver, arguments.toArray());
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+      return method.call0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+      return method.call1(interpreter, receiver, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+      return method.call2(interpreter, receiver, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+      return method.call3(interpreter, receiver, a, b, c);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package org.lox.lox;
+
+/**
+ * Instruction set of the bytecode VM. Operands follow the opcode inline in
+ * the chunk; u8 is a single byte, u16 is two bytes big-endian.
+ */
+final class OpCode {
+  // Constants and literals.
+  static final byte CONSTANT = 0;        // u16 constant index
+  static final byte NIL = 1;
+  static final byte TRUE = 2;
+  static final byte FALSE = 3;
+
+  // Stack manipulation.
+  static final byte POP = 4;
+  static final byte DUP = 5;
+
+  // Variables.
+  static final byte GET_LOCAL = 6;       // u8 slot
+  static final byte SET_LOCAL = 7;       // u8 slot
+  static final byte GET_UPVALUE = 8;     // u8 index
+  static final byte SET_UPVALUE = 9;     // u8 index
+  static final byte GET_GLOBAL = 10;     // u16 name
+  static final byte SET_GLOBAL = 11;     // u16 name
+  static final byte DEFINE_GLOBAL = 12;  // u16 name
+
+  // Properties and indexing.
+  static final byte GET_PROPERTY = 13;   // u16 name, u16 inline cache
+  static final byte SET_PROPERTY = 14;   // u16 name, u16 inline cache
+  static final byte GET_SUPER = 15;      // u16 name
+  static final byte INDEX_GET = 16;
+  static final byte INDEX_SET = 17;
+
+  // Operators.
+  static final byte EQUAL = 18;
+  static final byte NOT_EQUAL = 19;
+  static final byte GREATER = 20;
+  static final byte GREATER_EQUAL = 21;
+  static final byte LESS = 22;
+  static final byte LESS_EQUAL = 23;
+  static final byte ADD = 24;
+  static final byte SUBTRACT = 25;
+  static final byte MULTIPLY = 26;
+  static final byte DIVIDE = 27;
+  static final byte MODULO = 28;
+  static final byte EXPONENT = 29;
+  static final byte NOT = 30;
+  static final byte NEGATE = 31;
+  static final byte INCREMENT = 32;
+  static final byte DECREMENT = 33;
+
+  // Control flow.
+  static final byte JUMP = 34;           // u16 forward offset
+  static final byte JUMP_IF_FALSE = 35;  // u16 forward offset
+  static final byte LOOP = 36;           // u16 backward offset
+
+  // Functions and classes.
+  static final byte CALL = 37;           // u8 argument count
+  static final byte CLOSURE = 38;        // u16 function, then (u8 isLocal, u8 index) per upvalue
+  static final byte CLOSE_UPVALUE = 39;
+  static final byte RETURN = 40;
+  static final byte CLASS = 41;          // u16 name, u8 hasSuper, u16 methods, u16 class methods
+  static final byte ARRAY = 42;          // u16 element count
+  static final byte INVOKE = 43;         // u16 name, u16 inline cache, u8 argument count
+
+  // Errors the tree-walker reports when it reaches the expression.
+  static final byte ERROR = 44;          // u16 message
+
+  private OpCode() {}
+}
@@ -0,0 +1,547 @@
+package org.lox.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * Simplifies a resolved syntax tree before it runs: constant subexpressions
+ * are folded into literals, if and while statements with a constant
+ * condition lose the branch that can never run, groupings are dropped and
+ * a comma's left operand goes when evaluating it has no effect.
+ *
+ * Nothing that could fail at runtime is folded, so 1 / 0 or "a" - 1 still
+ * raise the same error when they are reached. Nodes whose children change
+ * are rebuilt with the same resolved fields; function declarations are kept
+ * and have their bodies rewritten in place, since the engines hold on to
+ * them.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+  /** The number of nodes in a tree, to tell how many a pass removed. */
+  static int count(List<Stmt> statements) {
+    Counter counter = new Counter();
+    counter.count(statements);
+    return counter.count;
+  }
+
+  /** Rewrites the statements in place. */
+  void optimize(List<Stmt> statements) {
+    ListIterator<Stmt> iterator = statements.listIterator();
+    while (iterator.hasNext()) {
+      Stmt statement = optimize(iterator.next());
+      if (statement == null) {
+        iterator.remove();
+      } else {
+        iterator.set(statement);
+      }
+    }
+  }
+
+  /** The optimized statement, or null if it does nothing. */
+  private Stmt optimize(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Expr optimize(Expr expr) {
+    return expr.accept(this);
+  }
+
+  /** A statement for a branch that must stay but no longer does anything. */
+  private Stmt branch(Stmt stmt) {
+    Stmt branch = optimize(stmt);
+    if (branch != null) return branch;
+    Stmt.Block empty = new Stmt.Block(new ArrayList<>());
+    empty.flat = true;
+    return empty;
+  }
+
+  private List<Expr> optimizeAll(List<Expr> exprs) {
+    List<Expr> result = exprs;
+    for (int i = 0; i < exprs.size(); i++) {
+      Expr expr = optimize(exprs.get(i));
+      if (expr != exprs.get(i)) {
+        if (result == exprs) result = new ArrayList<>(exprs);
+        result.set(i, expr);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    // Blocks made up by the parser for a for loop can't be resized.
+    List<Stmt> statements = new ArrayList<>(stmt.statements);
+    optimize(statements);
+    if (statements.equals(stmt.statements)) return stmt;
+    Stmt.Block result = new Stmt.Block(statements);
+    result.slotCount = stmt.slotCount;
+    result.flat = stmt.flat;
+    return result;
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    for (Stmt.Function method : stmt.classMethods) {
+      optimize(method.body);
+    }
+    for (Stmt.Function method : stmt.methods) {
+      optimize(method.body);
+    }
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = optimize(stmt.expression);
+    if (expression == stmt.expression) return stmt;
+    return new Stmt.Expression(expression);
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    optimize(stmt.body);
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = optimize(stmt.condition);
+    if (condition instanceof Expr.Literal) {
+      boolean taken = Interpreter.isTruthy(((Expr.Literal) condition).value);
+      if (taken) return optimize(stmt.thenBranch);
+      return stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+    }
+
+    Stmt thenBranch = branch(stmt.thenBranch);
+    Stmt elseBranch = stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+        elseBranch == stmt.elseBranch) {
+      return stmt;
+    }
+    return new Stmt.If(condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr condition = optimize(stmt.condition);
+    if (condition instanceof Expr.Literal &&
+        !Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+      return null;
+    }
+
+    Stmt body = branch(stmt.body);
+    if (condition == stmt.condition && body == stmt.body) return stmt;
+    return new Stmt.While(condition, body);
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) return stmt;
+
+    Expr value = optimize(stmt.value);
+    if (value == stmt.value) return stmt;
+    Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+    result.tailCall = stmt.tailCall;
+    return result;
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer == null) return stmt;
+
+    Expr initializer = optimize(stmt.initializer);
+    if (initializer == stmt.initializer) return stmt;
+    return new Stmt.Var(stmt.name, initializer);
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = optimize(expr.value);
+    if (value == expr.value) return expr;
+    Expr.Assign result = new Expr.Assign(expr.name, value);
+    result.depth = expr.depth;
+    result.slot = expr.slot;
+    return result;
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+
+    if (expr.operator.type == TokenType.COMMA && isPure(left)) return right;
+
+    if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+      Object value = fold(expr.operator.type,
+          ((Expr.Literal) left).value, ((Expr.Literal) right).value);
+      if (value != NOT_CONSTANT) return new Expr.Literal(value);
+    }
+
+    if (left == expr.left && right == expr.right) return expr;
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  private static final Object NOT_CONSTANT = new Object();
+
+  /**
+   * What the interpreter computes for the operator on two constants, or
+   * NOT_CONSTANT if it would raise an error and has to be left to do so.
+   */
+  private static Object fold(TokenType operator, Object left, Object right) {
+    switch (operator) {
+      case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+      case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+      case PLUS:
+        if (left instanceof String && right instanceof String) {
+          return (String) left + (String) right;
+        }
+        if (left instanceof String && right instanceof Double) {
+          return (String) left + Interpreter.numberToString((double) right);
+        }
+        if (left instanceof Double && right instanceof String) {
+          return Interpreter.numberToString((double) left) + (String) right;
+        }
+        break;
+    }
+
+    if (!(left instanceof Double && right instanceof Double)) return NOT_CONSTANT;
+    double a = (double) left, b = (double) right;
+    switch (operator) {
+      case GREATER: return a > b;
+      case GREATER_EQUAL: return a >= b;
+      case LESS: return a < b;
+      case LESS_EQUAL: return a <= b;
+      case MINUS: return a - b;
+      case PLUS: return a + b;
+      case STAR: return a * b;
+      case EXPONENT: return Math.pow(a, b);
+      case MODULO: return Interpreter.modulo(a, b);
+      case SLASH: return b != 0.0 ? a / b : NOT_CONSTANT;
+    }
+    return NOT_CONSTANT;
+  }
+
+  /** Whether evaluating an expression can have no effect and never fail. */
+  private static boolean isPure(Expr expr) {
+    if (expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+    if (expr instanceof Expr.Variable) {
+      // Globals can be undefined; locals are always there.
+      return ((Expr.Variable) expr).depth != -1;
+    }
+    if (expr instanceof Expr.Grouping) {
+      return isPure(((Expr.Grouping) expr).expression);
+    }
+    if (expr instanceof Expr.Logical) {
+      return isPure(((Expr.Logical) expr).left) && isPure(((Expr.Logical) expr).right);
+    }
+    if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary) expr;
+      return unary.operator.type == TokenType.BANG && isPure(unary.right);
+    }
+    return false;
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr callee = optimize(expr.callee);
+    List<Expr> arguments = optimizeAll(expr.arguments);
+    if (callee == expr.callee && arguments == expr.arguments) return expr;
+    return new Expr.Call(callee, expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitIndexGetExpr(Expr.IndexGet expr) {
+    Expr indexee = optimize(expr.indexee);
+    Expr index = optimize(expr.index);
+    if (indexee == expr.indexee && index == expr.index) return expr;
+    return new Expr.IndexGet(indexee, expr.bracket, index);
+  }
+
+  @Override
+  public Expr visitIndexSetExpr(Expr.IndexSet expr) {
+    Expr indexee = optimize(expr.indexee);
+    Expr index = optimize(expr.index);
+    Expr value = optimize(expr.value);
+    if (indexee == expr.indexee && index == expr.index && value == expr.value) return expr;
+    return new Expr.IndexSet(indexee, expr.bracket, index, value);
+  }
+
+  @Override
+  public Expr visitArrayExpr(Expr.Array expr) {
+    List<Expr> elements = optimizeAll(expr.elements);
+    if (elements == expr.elements) return expr;
+    return new Expr.Array(expr.bracket, elements);
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    Expr object = optimize(expr.object);
+    if (object == expr.object) return expr;
+    return new Expr.Get(object, expr.name);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return optimize(expr.expression);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+
+    if (left instanceof Expr.Literal) {
+      // The left operand is the result if it decides the outcome,
+      // otherwise the right one is.
+      boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+      boolean decides = expr.operator.type == TokenType.OR ? truthy : !truthy;
+      return decides ? left : right;
+    }
+
+    if (left == expr.left && right == expr.right) return expr;
+    return new Expr.Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    Expr object = optimize(expr.object);
+    Expr value = optimize(expr.value);
+    if (object == expr.object && value == expr.value) return expr;
+    return new Expr.Set(object, expr.name, value);
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    // ++ and -- check that their operand is a variable at runtime, even
+    // one in parentheses, so leave them as they are.
+    if (expr.operator.type != TokenType.BANG && expr.operator.type != TokenType.MINUS) {
+      return expr;
+    }
+
+    Expr right = optimize(expr.right);
+    if (right instanceof Expr.Literal) {
+      Object value = ((Expr.Literal) right).value;
+      if (expr.operator.type == TokenType.BANG) {
+        return new Expr.Literal(!Interpreter.isTruthy(value));
+      }
+      if (value instanceof Double) return new Expr.Literal(-(double) value);
+    }
+
+    if (right == expr.right) return expr;
+    return new Expr.Unary(expr.operator, right, expr.postfix);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+
+  private static class Counter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    int count = 0;
+
+    void count(List<? extends Stmt> statements) {
+      for (Stmt statement : statements) {
+        count(statement);
+      }
+    }
+
+    private void count(Stmt stmt) {
+      if (stmt != null) stmt.accept(this);
+    }
+
+    private void count(Expr expr) {
+      if (expr != null) expr.accept(this);
+    }
+
+    private void countAll(List<Expr> exprs) {
+      for (Expr expr : exprs) {
+        count(expr);
+      }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      count++;
+      count(stmt.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      count++;
+      count(stmt.superclass);
+      count(stmt.classMethods);
+      count(stmt.methods);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      count++;
+      count(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      count++;
+      count(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      count++;
+      count(stmt.condition);
+      count(stmt.thenBranch);
+      count(stmt.elseBranch);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      count++;
+      count(stmt.condition);
+      count(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      count++;
+      count(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      count++;
+      count(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      count++;
+      count(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      count++;
+      count(expr.left);
+      count(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      count++;
+      count(expr.callee);
+      countAll(expr.arguments);
+      return null;
+    }
+
+    @Override
+    public Void visitIndexGetExpr(Expr.IndexGet expr) {
+      count++;
+      count(expr.indexee);
+      count(expr.index);
+      return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+      count++;
+      count(expr.indexee);
+      count(expr.index);
+      count(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+      count++;
+      countAll(expr.elements);
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      count++;
+      count(expr.object);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      count++;
+      count(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      count++;
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      count++;
+      count(expr.left);
+      count(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      count++;
+      count(expr.object);
+      count(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      count++;
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      count++;
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      count++;
+      count(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      count++;
+      return null;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package org.lox.lox;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * parallelMap and parallelReduce on large arrays, split across the common
+ * ForkJoinPool. Only a callback that is a pure interpreted function (see
+ * {@link Purity}) is run this way; each piece of work gets an interpreter
+ * of its own that shares the globals. Everything else runs in order on the
+ * calling thread, with the same result.
+ */
+final class ParallelArrays {
+
+  // Arrays shorter than this aren't worth splitting.
+  static final int THRESHOLD = 10000;
+  // Nor are pieces shorter than this.
+  private static final int MIN_PIECE = 1024;
+
+  private ParallelArrays() {}
+
+  static boolean canSplit(LoxArray array, LoxCallable callback) {
+    if (array.length() < THRESHOLD) return false;
+    // The VM runs its closures on its own stack, so they stay on one thread.
+    Class<?> type = callback.getClass();
+    return (type == LoxFunction.class || type == LinkedFunction.class) &&
+        Purity.isPure((LoxFunction) callback);
+  }
+
+  static LoxArray map(Interpreter interpreter, LoxArray array, LoxCallable callback) {
+    Object[] results = new Object[array.length()];
+    int length = results.length;
+    ForkJoinPool.commonPool().invoke(
+        new MapTask(interpreter, array, callback, results, 0, length, piece(length)));
+    return new LoxArray(results);
+  }
+
+  /**
+   * Folds each piece of the elements from initial with the callback, then
+   * merges the pieces' results with the combiner. This matches reduce()
+   * when initial is an identity for the combiner and the combiner merges
+   * two folds the way folding on would.
+   */
+  static Object reduce(Interpreter interpreter, LoxArray array, LoxCallable callback,
+                       Object initial, LoxCallable combiner) {
+    int length = array.length();
+    return ForkJoinPool.commonPool().invoke(new ReduceTask(
+        interpreter, array, callback, initial, combiner, 0, length, piece(length)));
+  }
+
+  private static int piece(int length) {
+    int pieces = ForkJoinPool.commonPool().getParallelism() * 4;
+    return Math.max(MIN_PIECE, length / pieces);
+  }
+
+  private static final class MapTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Interpreter interpreter;
+    private final LoxArray array;
+    private final LoxCallable callback;
+    private final Object[] results;
+    private final int from;
+    private final int to;
+    private final int piece;
+
+    MapTask(Interpreter interpreter, LoxArray array, LoxCallable callback, Object[] results,
+            int from, int to, int piece) {
+      this.interpreter = interpreter;
+      this.array = array;
+      this.callback = callback;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+      this.piece = piece;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= piece) {
+        Interpreter worker = new Interpreter(interpreter);
+        for (int i = from; i < to; i++) {
+          results[i] = callback.call1(worker, array.element(i));
+        }
+        return;
+      }
+
+      int middle = (from + to) >>> 1;
+      invokeAll(new MapTask(interpreter, array, callback, results, from, middle, piece),
+          new MapTask(interpreter, array, callback, results, middle, to, piece));
+    }
+  }
+
+  private static final class ReduceTask extends RecursiveTask<Object> {
+    private static final long serialVersionUID = 1L;
+
+    private final Interpreter interpreter;
+    private final LoxArray array;
+    private final LoxCallable callback;
+    private final Object initial;
+    private final LoxCallable combiner;
+    private final int from;
+    private final int to;
+    private final int piece;
+
+    ReduceTask(Interpreter interpreter, LoxArray array, LoxCallable callback, Object initial,
+               LoxCallable combiner, int from, int to, int piece) {
+      this.interpreter = interpreter;
+      this.array = array;
+      this.callback = callback;
+      this.initial = initial;
+      this.combiner = combiner;
+      this.from = from;
+      this.to = to;
+      this.piece = piece;
+    }
+
+    @Override
+    protected Object compute() {
+      Interpreter worker = new Interpreter(interpreter);
+      if (to - from <= piece) {
+        Object result = initial;
+        for (int i = from; i < to; i++) {
+          result = callback.call2(worker, result, array.element(i));
+        }
+        return result;
+      }
+
+      int middle = (from + to) >>> 1;
+      ReduceTask left = new ReduceTask(
+          interpreter, array, callback, initial, combiner, from, middle, piece);
+      left.fork();
+      Object right = new ReduceTask(
+          interpreter, array, callback, initial, combiner, middle, to, piece).compute();
+      return combiner.call2(worker, left.join(), right);
+    }
+  }
+}
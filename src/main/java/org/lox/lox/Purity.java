@@ -0,0 +1,177 @@
+package org.lox.lox;
+
+import java.util.List;
+
+/**
+ * Decides whether a function can safely run on several threads at once. A
+ * pure function only computes from its arguments and whatever it reads: it
+ * calls nothing, assigns only its own locals, and reads no properties,
+ * since even a read updates the inline cache at its site. Anything in
+ * doubt counts as impure.
+ */
+final class Purity implements Expr.Visitor<Boolean>, Stmt.Visitor<Boolean> {
+
+  // Scopes entered inside the function body. A variable resolved at a
+  // distance up to this is one of the function's own locals.
+  private int depth = 0;
+
+  private Purity() {}
+
+  static boolean isPure(LoxFunction function) {
+    if (function.isInitializer || function.isGetter()) return false;
+
+    Stmt.Function declaration = function.declaration;
+    if (declaration.pure == null) {
+      declaration.pure = new Purity().all(declaration.body);
+    }
+    return declaration.pure;
+  }
+
+  private boolean all(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (!pure(statement)) return false;
+    }
+    return true;
+  }
+
+  private boolean pure(Stmt stmt) {
+    return stmt == null || stmt.accept(this);
+  }
+
+  private boolean pure(Expr expr) {
+    return expr == null || expr.accept(this);
+  }
+
+  private boolean isLocal(int distance) {
+    return distance != -1 && distance <= depth;
+  }
+
+  @Override
+  public Boolean visitBlockStmt(Stmt.Block stmt) {
+    if (stmt.flat) return all(stmt.statements);
+
+    depth++;
+    boolean pure = all(stmt.statements);
+    depth--;
+    return pure;
+  }
+
+  @Override
+  public Boolean visitClassStmt(Stmt.Class stmt) {
+    return false;
+  }
+
+  @Override
+  public Boolean visitExpressionStmt(Stmt.Expression stmt) {
+    return pure(stmt.expression);
+  }
+
+  @Override
+  public Boolean visitFunctionStmt(Stmt.Function stmt) {
+    return false;
+  }
+
+  @Override
+  public Boolean visitIfStmt(Stmt.If stmt) {
+    return pure(stmt.condition) && pure(stmt.thenBranch) && pure(stmt.elseBranch);
+  }
+
+  @Override
+  public Boolean visitWhileStmt(Stmt.While stmt) {
+    return pure(stmt.condition) && pure(stmt.body);
+  }
+
+  @Override
+  public Boolean visitReturnStmt(Stmt.Return stmt) {
+    return pure(stmt.value);
+  }
+
+  @Override
+  public Boolean visitVarStmt(Stmt.Var stmt) {
+    return pure(stmt.initializer);
+  }
+
+  @Override
+  public Boolean visitAssignExpr(Expr.Assign expr) {
+    return isLocal(expr.depth) && pure(expr.value);
+  }
+
+  @Override
+  public Boolean visitBinaryExpr(Expr.Binary expr) {
+    return pure(expr.left) && pure(expr.right);
+  }
+
+  @Override
+  public Boolean visitCallExpr(Expr.Call expr) {
+    return false;
+  }
+
+  @Override
+  public Boolean visitIndexGetExpr(Expr.IndexGet expr) {
+    return pure(expr.indexee) && pure(expr.index);
+  }
+
+  @Override
+  public Boolean visitIndexSetExpr(Expr.IndexSet expr) {
+    return false;
+  }
+
+  @Override
+  public Boolean visitArrayExpr(Expr.Array expr) {
+    for (Expr element : expr.elements) {
+      if (!pure(element)) return false;
+    }
+    return true;
+  }
+
+  @Override
+  public Boolean visitGetExpr(Expr.Get expr) {
+    return false;
+  }
+
+  @Override
+  public Boolean visitGroupingExpr(Expr.Grouping expr) {
+    return pure(expr.expression);
+  }
+
+  @Override
+  public Boolean visitLiteralExpr(Expr.Literal expr) {
+    return true;
+  }
+
+  @Override
+  public Boolean visitLogicalExpr(Expr.Logical expr) {
+    return pure(expr.left) && pure(expr.right);
+  }
+
+  @Override
+  public Boolean visitSetExpr(Expr.Set expr) {
+    return false;
+  }
+
+  @Override
+  public Boolean visitSuperExpr(Expr.Super expr) {
+    return false;
+  }
+
+  @Override
+  public Boolean visitThisExpr(Expr.This expr) {
+    return false;
+  }
+
+  @Override
+  public Boolean visitUnaryExpr(Expr.Unary expr) {
+    switch (expr.operator.type) {
+      case PLUS_PLUS: case MINUS_MINUS:
+        return expr.right instanceof Expr.Variable &&
+            isLocal(((Expr.Variable) expr.right).depth);
+      default:
+        return pure(expr.right);
+    }
+  }
+
+  @Override
+  public Boolean visitVariableExpr(Expr.Variable expr) {
+    return true;
+  }
+}
@@ -20,15 +20,52 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     SUBCLASS
   }
 
-  private final Interpreter interpreter;
-  private final Stack<HashMap<String, Boolean>> scopes = new Stack<>();
-  private FunctionType currentFunction = FunctionType.NONE;
-  private ClassType currentClass = ClassType.NONE;
+  private static class Local {
+    final int slot;
+    boolean defined = false;
 
-  public Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
+    Local(int slot) {
+      this.slot = slot;
+    }
   }
 
+  /**
+   * A lexical scope. Most get an Environment of their own at runtime, but
+   * a block that declares no function or class can't be captured by a
+   * closure, so it is flattened: its variables take the next free slots of
+   * the scope around it, which it hands back when it ends.
+   */
+  private static class Scope {
+    final Map<String, Local> locals = new HashMap<>();
+    // The scope whose Environment holds this one's variables.
+    final Scope host;
+    // The host's first free slot when this scope began.
+    final int start;
+    // On a host only.
+    int next = 0;
+    int slotCount = 0;
+
+    Scope(Scope enclosing, boolean flat) {
+      host = flat ? enclosing.host : this;
+      start = host.next;
+    }
+
+    boolean isFlat() {
+      return host != this;
+    }
+
+    int allocate() {
+      int slot = host.next++;
+      host.slotCount = Math.max(host.slotCount, host.next);
+      return slot;
+    }
+  }
+
+  private final Stack<Scope> scopes = new Stack<>();
+  private FunctionType currentFunction = FunctionType.NONE;
+  private Stmt.Function currentDeclaration = null;
+  private ClassType currentClass = ClassType.NONE;
+
   void resolve(List<Stmt> stmts) {
     for (Stmt statement : stmts) {
       resolve(statement);
@@ -45,7 +82,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   public void resolveFunction(Stmt.Function function, FunctionType type) {
     FunctionType enclosingFunction = currentFunction;
+    Stmt.Function enclosingDeclaration = currentDeclaration;
     currentFunction = type;
+    currentDeclaration = function;
 
     beginScope();
     if (function.parameters != null) {
@@ -55,40 +94,119 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       }
     }
     resolve(function.body);
-    endScope();
+    function.slotCount = endScope();
     currentFunction = enclosingFunction;
+    currentDeclaration = enclosingDeclaration;
   }
 
   private void beginScope() {
-    scopes.push(new HashMap<>());
+    beginScope(false);
+  }
+
+  private void beginScope(boolean flat) {
+    scopes.push(new Scope(flat ? scopes.peek() : null, flat));
+  }
+
+  /**
+   * Notes that the function being resolved creates closures, which may
+   * hold on to its scopes after it returns.
+   */
+  private void markCaptured() {
+    if (currentDeclaration != null) currentDeclaration.captured = true;
+  }
+
+  /**
+   * Closes the innermost scope and returns how many slots its Environment
+   * needs, or 0 for a flattened one.
+   */
+  private int endScope() {
+    Scope scope = scopes.pop();
+    if (scope.isFlat()) {
+      // Slots are reused by whatever the host declares next, just as the
+      // runtime forgets the block's variables when it leaves.
+      scope.host.next = scope.start;
+      return 0;
+    }
+    return scope.slotCount;
   }
 
-  private void endScope() {
-    scopes.pop();
+  /**
+   * Whether the statements declare a function or class anywhere inside,
+   * which would capture the scope they are in.
+   */
+  private static boolean declaresClosure(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (declaresClosure(statement)) return true;
+    }
+    return false;
+  }
+
+  private static boolean declaresClosure(Stmt stmt) {
+    if (stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) return true;
+    if (stmt instanceof Stmt.Block) return declaresClosure(((Stmt.Block) stmt).statements);
+    if (stmt instanceof Stmt.If) {
+      Stmt.If ifStmt = (Stmt.If) stmt;
+      return declaresClosure(ifStmt.thenBranch) ||
+          (ifStmt.elseBranch != null && declaresClosure(ifStmt.elseBranch));
+    }
+    if (stmt instanceof Stmt.While) return declaresClosure(((Stmt.While) stmt).body);
+    return false;
   }
 
   private void declare(Token name) {
     if (scopes.isEmpty()) return;
 
-    Map<String, Boolean> scope = scopes.peek();
-    if (scope.containsKey(name.lexeme)) {
+    Scope scope = scopes.peek();
+    if (scope.locals.containsKey(name.lexeme)) {
       Lox.error(name,
           "Variable with this name already declared in this scope.");
+      return;
     }
-    scope.put(name.lexeme, false);
+    // Slots are handed out in declaration order, the same order the
+    // Interpreter defines them in.
+    scope.locals.put(name.lexeme, new Local(scope.allocate()));
   }
 
   private void define(Token name) {
     if (scopes.isEmpty()) return;
-    scopes.peek().put(name.lexeme, true);
+    scopes.peek().locals.get(name.lexeme).defined = true;
+  }
+
+  private void defineSynthetic(String name) {
+    Scope scope = scopes.peek();
+    Local local = new Local(scope.allocate());
+    local.defined = true;
+    scope.locals.put(name, local);
   }
 
+  /**
+   * Finds the scope that declares the name and records its depth and slot
+   * on the referencing expression. The depth counts Environments, so
+   * flattened scopes on the way don't add to it. Names that are not found
+   * are left with a depth of -1 and treated as globals.
+   */
   private void resolveLocal(Expr expr, Token name) {
+    int depth = 0;
     for (int i = scopes.size() - 1; i >= 0; --i) {
-      if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
+      Scope scope = scopes.get(i);
+      Local local = scope.locals.get(name.lexeme);
+      if (local != null) {
+        if (expr instanceof Expr.Variable) {
+          ((Expr.Variable) expr).depth = depth;
+          ((Expr.Variable) expr).slot = local.slot;
+        } else if (expr instanceof Expr.Assign) {
+          ((Expr.Assign) expr).depth = depth;
+          ((Expr.Assign) expr).slot = local.slot;
+        } else if (expr instanceof Expr.This) {
+          ((Expr.This) expr).depth = depth;
+          ((Expr.This) expr).slot = local.slot;
+        } else if (expr instanceof Expr.Super) {
+          ((Expr.Super) expr).depth = depth;
+          ((Expr.Super) expr).slot = local.slot;
+        }
         return;
       }
+      if (!scope.isFlat()) depth++;
     }
   }
 
@@ -203,7 +321,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
     if (!scopes.isEmpty() &&
-        scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        scopes.peek().locals.containsKey(expr.name.lexeme) &&
+        !scopes.peek().locals.get(expr.name.lexeme).defined) {
       Lox.error(expr.name,
           "Cannot read local variable in its own initializer");
     }
@@ -214,9 +333,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    beginScope();
+    // Blocks at the top level stay as they are, since globals have no
+    // slots to share.
+    stmt.flat = !scopes.isEmpty() && !declaresClosure(stmt.statements);
+    beginScope(stmt.flat);
     resolve(stmt.statements);
-    endScope();
+    stmt.slotCount = endScope();
     return null;
   }
 
@@ -224,6 +346,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitClassStmt(Stmt.Class stmt) {
     declare(stmt.name);
     define(stmt.name);
+    markCaptured();
 
     ClassType enclosingClass = currentClass;
     currentClass = ClassType.CLASS;
@@ -232,11 +355,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       currentClass = ClassType.SUBCLASS;
       resolve(stmt.superclass);
       beginScope();
-      scopes.peek().put("super", true);
+      defineSynthetic("super");
     }
 
     beginScope();
-    scopes.peek().put("this", true);
+    defineSynthetic("this");
 
     for (Stmt.Function method : stmt.methods) {
       FunctionType declaration = FunctionType.METHOD;
@@ -267,6 +390,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitFunctionStmt(Stmt.Function stmt) {
     declare(stmt.name);
     define(stmt.name);
+    markCaptured();
 
     resolveFunction(stmt, FunctionType.FUNCTION);
     return null;
@@ -299,6 +423,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             "Cannot return a value from an initializer.");
       }
       resolve(stmt.value);
+
+      // The call is the last thing the function does, so the engines can
+      // make it without keeping this activation around.
+      stmt.tailCall = stmt.value instanceof Expr.Call;
     }
     return null;
   }
@@ -0,0 +1,96 @@
+package org.lox.lox;
+
+/**
+ * A long Lox string built by concatenation. The characters live in a
+ * buffer that later concatenations append to in place, so a loop doing
+ * s = s + x copies each piece once instead of the whole string every time.
+ * A Rope is a prefix of its buffer; only the one reaching the buffer's end
+ * may extend it, and an older one is copied like a String would be.
+ *
+ * Short results stay plain Strings, so a Lox string is either. The text is
+ * flattened into a String, once, whenever something needs it: printing,
+ * equality, hashing.
+ */
+final class Rope implements CharSequence {
+
+  // Results shorter than this are plain Strings.
+  static final int MIN_LENGTH = 256;
+
+  private final StringBuilder buffer;
+  private final int length;
+  private String flat;
+
+  private Rope(StringBuilder buffer, int length) {
+    this.buffer = buffer;
+    this.length = length;
+  }
+
+  static boolean isString(Object value) {
+    return value instanceof String || value instanceof Rope;
+  }
+
+  /** Concatenates two Lox strings. */
+  static CharSequence concat(CharSequence left, CharSequence right) {
+    // Flatten a Rope on the right first, since it may share the buffer.
+    String tail = right.toString();
+    int length = left.length() + tail.length();
+
+    if (left instanceof Rope) {
+      Rope rope = (Rope) left;
+      synchronized (rope.buffer) {
+        if (rope.buffer.length() == rope.length) {
+          rope.buffer.append(tail);
+          return new Rope(rope.buffer, length);
+        }
+      }
+    }
+
+    if (length < MIN_LENGTH) return left.toString().concat(tail);
+
+    // Leave room for the appends that usually follow.
+    StringBuilder buffer = new StringBuilder(length * 2);
+    buffer.append(left.toString()).append(tail);
+    return new Rope(buffer, length);
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return toString().charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().subSequence(start, end);
+  }
+
+  /**
+   * Equal to a String or Rope with the same text. String.equals() doesn't
+   * return the favour, so Interpreter.isEqual flattens Ropes first.
+   */
+  @Override
+  public boolean equals(Object other) {
+    return isString(other) && toString().equals(other.toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    String text = flat;
+    if (text == null) {
+      synchronized (buffer) {
+        text = buffer.substring(0, length);
+      }
+      flat = text;
+    }
+    return text;
+  }
+}
@@ -192,8 +192,13 @@ public class Scanner {
     String text = source.substring(start, current);
 
     TokenType type = keywords.get(text);
-    if (type == null) type = IDENTIFIER;
-    addToken(type);
+    if (type != null) {
+      addToken(type);
+      return;
+    }
+
+    int symbol = Symbols.intern(text);
+    tokens.add(new Token(IDENTIFIER, Symbols.name(symbol), null, line, symbol));
   }
 
   private void multilineComment() {
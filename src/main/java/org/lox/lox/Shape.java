@@ -0,0 +1,58 @@
+package org.lox.lox;
+
+/**
+ * The field layout of an instance: which field lives at which index of its
+ * values array. Shapes are shared and never change; adding a field moves an
+ * instance to a child shape, so instances of a class that set their fields
+ * in the same order end up sharing one shape.
+ */
+class Shape {
+
+  private final Shape root;
+  private final SymbolMap<Integer> indexes;
+  private SymbolMap<Shape> transitions;
+  // On the root only: the size of the largest shape grown from it, so new
+  // instances can allocate all their fields up front.
+  private int expectedSize = 0;
+
+  /** An empty root shape. */
+  Shape() {
+    this.root = this;
+    this.indexes = new SymbolMap<>();
+  }
+
+  private Shape(Shape parent, int name) {
+    this.root = parent.root;
+    this.indexes = new SymbolMap<>(parent.indexes);
+    indexes.put(name, indexes.size());
+    root.expectedSize = Math.max(root.expectedSize, indexes.size());
+  }
+
+  int size() {
+    return indexes.size();
+  }
+
+  int expectedSize() {
+    return root.expectedSize;
+  }
+
+  /** The index of a field, or -1 if this shape does not have it. */
+  int indexOf(int name) {
+    Integer index = indexes.get(name);
+    return index != null ? index : -1;
+  }
+
+  /** The shape with one more field, appended at index size(). */
+  Shape with(int name) {
+    if (transitions == null) {
+      transitions = new SymbolMap<>();
+    }
+
+    Shape shape = transitions.get(name);
+    if (shape == null) {
+      shape = new Shape(this, name);
+      transitions.put(name, shape);
+    }
+    return shape;
+  }
+}
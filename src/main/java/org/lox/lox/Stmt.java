@@ -23,6 +23,9 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+
+    int slotCount;
+    boolean flat;
   }
   static class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> classMethods, List<Stmt.Function> methods) {
@@ -66,6 +69,13 @@ abstract class Stmt {
     final Token name;
     final List<Token> parameters;
     final List<Stmt> body;
+
+    int slotCount;
+    boolean captured;
+
+    int calls;
+    JitFunction jit;
+    Boolean pure;
   }
   static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -107,6 +117,8 @@ abstract class Stmt {
 
     final Token keyword;
     final Expr value;
+
+    boolean tailCall;
   }
   static class Var extends Stmt {
     Var(Token name, Expr initializer) {
@@ -0,0 +1,88 @@
+package org.lox.lox;
+
+import java.util.Arrays;
+
+/**
+ * A map keyed by symbol. Keys and values sit in parallel arrays probed
+ * linearly from the symbol itself, so a lookup neither boxes the key nor
+ * touches a string. Symbols are handed out in order, which spreads them
+ * without any hashing.
+ */
+final class SymbolMap<V> {
+
+  private static final int EMPTY = -1;
+
+  private int[] keys;
+  private Object[] values;
+  private int size = 0;
+
+  SymbolMap() {
+    keys = new int[8];
+    Arrays.fill(keys, EMPTY);
+    values = new Object[8];
+  }
+
+  SymbolMap(SymbolMap<V> other) {
+    keys = other.keys.clone();
+    values = other.values.clone();
+    size = other.size;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean containsKey(int symbol) {
+    return keys[slot(symbol)] == symbol;
+  }
+
+  @SuppressWarnings("unchecked")
+  V get(int symbol) {
+    int slot = slot(symbol);
+    return keys[slot] == symbol ? (V) values[slot] : null;
+  }
+
+  void put(int symbol, V value) {
+    int slot = slot(symbol);
+    if (keys[slot] != symbol) {
+      // Keep at most three quarters full so probes stay short.
+      if ((size + 1) * 4 > keys.length * 3) {
+        grow();
+        slot = slot(symbol);
+      }
+      keys[slot] = symbol;
+      size++;
+    }
+    values[slot] = value;
+  }
+
+  @SuppressWarnings("unchecked")
+  void putAll(SymbolMap<? extends V> other) {
+    for (int i = 0; i < other.keys.length; i++) {
+      if (other.keys[i] != EMPTY) put(other.keys[i], (V) other.values[i]);
+    }
+  }
+
+  /** Where the symbol is, or the empty slot it would go in. */
+  private int slot(int symbol) {
+    int mask = keys.length - 1;
+    int slot = symbol & mask;
+    while (keys[slot] != EMPTY && keys[slot] != symbol) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void grow() {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new int[oldKeys.length * 2];
+    Arrays.fill(keys, EMPTY);
+    values = new Object[oldKeys.length * 2];
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) put(oldKeys[i], (V) oldValues[i]);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package org.lox.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The global symbol table. Every distinct identifier gets a small int,
+ * handed out in order, that the runtime keys its tables by instead of
+ * hashing and comparing the name. Each name is kept once, so tokens share
+ * the interned string too.
+ */
+final class Symbols {
+
+  private static final Map<String, Integer> ids = new HashMap<>();
+  private static final List<String> names = new ArrayList<>();
+
+  static final int INIT = intern("init");
+
+  private Symbols() {}
+
+  static synchronized int intern(String name) {
+    Integer id = ids.get(name);
+    if (id == null) {
+      id = names.size();
+      ids.put(name, id);
+      names.add(name);
+    }
+    return id;
+  }
+
+  static synchronized String name(int symbol) {
+    return names.get(symbol);
+  }
+}
@@ -5,12 +5,20 @@ public class Token {
   final String lexeme;
   final Object literal;
   final int line;
+  // For an identifier, its name's id in the Symbols table; otherwise -1.
+  final int symbol;
 
   public Token(TokenType type, String lexeme, Object literal, int line) {
+    this(type, lexeme, literal, line,
+        type == TokenType.IDENTIFIER ? Symbols.intern(lexeme) : -1);
+  }
+
+  Token(TokenType type, String lexeme, Object literal, int line, int symbol) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.symbol = symbol;
   }
 
   @Override
@@ -0,0 +1,14 @@
+package org.lox.lox;
+
+/**
+ * What the operands of a Binary or Unary node have held so far. A node
+ * starts out uninitialized, specializes to the types it sees on its first
+ * evaluation, and falls back to generic for good once a guard fails.
+ */
+enum TypeFeedback {
+  UNINITIALIZED,
+  NUMBERS,
+  STRINGS,
+  BOOLEANS,
+  GENERIC
+}
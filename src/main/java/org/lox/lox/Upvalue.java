@@ -0,0 +1,36 @@
+package org.lox.lox;
+
+/**
+ * A variable captured by a closure. While the variable's frame is live the
+ * upvalue points into the VM stack; once the variable goes out of scope it
+ * is closed over and the value moves into the upvalue itself.
+ */
+class Upvalue {
+
+  private Object[] stack;
+  final int slot;
+  private Object closed;
+  Upvalue next;
+
+  Upvalue(Object[] stack, int slot) {
+    this.stack = stack;
+    this.slot = slot;
+  }
+
+  Object get() {
+    return stack != null ? stack[slot] : closed;
+  }
+
+  void set(Object value) {
+    if (stack != null) {
+      stack[slot] = value;
+    } else {
+      closed = value;
+    }
+  }
+
+  void close() {
+    closed = stack[slot];
+    stack = null;
+  }
+}
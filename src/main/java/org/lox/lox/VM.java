@@ -0,0 +1,729 @@
+package org.lox.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stack-based virtual machine that executes the bytecode produced by
+ * {@link Compiler}. Selected with {@code --engine=vm}; shares the object
+ * model (classes, instances, arrays, natives) with the tree-walker.
+ */
+class VM {
+
+  private static final int FRAMES_MAX = 1024;
+  private static final int STACK_MAX = FRAMES_MAX * 256;
+
+  private static class CallFrame {
+    CompiledFunction function;
+    Upvalue[] upvalues;
+    int ip;
+    int base;
+    // Set when a class call entered the initializer, so that the frame
+    // returns the new instance even through a bare return.
+    boolean constructing;
+  }
+
+  private final Map<String, Global> globals = new HashMap<>();
+  private final Interpreter interpreter;
+  private final Object[] stack = new Object[STACK_MAX];
+  private int sp = 0;
+  private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+  private int frameCount = 0;
+  private Upvalue openUpvalues;
+
+  VM(Interpreter interpreter) {
+    this.interpreter = interpreter;
+    for (int i = 0; i < FRAMES_MAX; i++) {
+      frames[i] = new CallFrame();
+    }
+    NativeFunctions.define((name, value) -> {
+      Global global = global(name);
+      global.value = value;
+      global.defined = true;
+    });
+  }
+
+  Global global(String name) {
+    return globals.computeIfAbsent(name, Global::new);
+  }
+
+  void interpret(List<Stmt> statements) {
+    CompiledFunction script = Compiler.compile(statements, this);
+
+    // Stop if the compiler hit one of its limits.
+    if (Lox.hadError) return;
+
+    try {
+      push(null);
+      pushFrame(script, null, 0, script.chunk.tokens[0]);
+      run(0);
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+      sp = 0;
+      frameCount = 0;
+      openUpvalues = null;
+    }
+  }
+
+  /**
+   * Entry point for callers outside the dispatch loop, such as natives or
+   * {@link LoxClass#call}, that need to run a compiled function to
+   * completion and get its result.
+   */
+  Object call(VmClosure closure, LoxInstance receiver, List<Object> arguments) {
+    int base = sp;
+    push(closure);
+    if (arguments != null) {
+      for (Object argument : arguments) {
+        push(argument);
+      }
+    }
+    return runFrame(closure, receiver, base);
+  }
+
+  /**
+   * {@link #call} for up to three arguments, passed without a list. Only
+   * the first argCount of a, b and c are used.
+   */
+  Object call(VmClosure closure, LoxInstance receiver, int argCount, Object a, Object b, Object c) {
+    int base = sp;
+    push(closure);
+    if (argCount > 0) push(a);
+    if (argCount > 1) push(b);
+    if (argCount > 2) push(c);
+    return runFrame(closure, receiver, base);
+  }
+
+  private Object runFrame(VmClosure closure, LoxInstance receiver, int base) {
+    int depth = frameCount;
+    pushFrame(closure.function, closure.upvalues, base,
+        closure.function.declaration.name);
+    if (receiver != null) stack[base] = receiver;
+    return run(depth);
+  }
+
+  private Object run(int exitDepth) {
+    CallFrame frame = frames[frameCount - 1];
+    byte[] code = frame.function.chunk.code;
+    Object[] constants = frame.function.chunk.constants;
+    int ip = frame.ip;
+    int base = frame.base;
+    Object[] stack = this.stack;
+    int sp = this.sp;
+
+    for (;;) {
+      switch (code[ip++]) {
+        case OpCode.CONSTANT:
+          stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          break;
+        case OpCode.NIL: stack[sp++] = null; break;
+        case OpCode.TRUE: stack[sp++] = true; break;
+        case OpCode.FALSE: stack[sp++] = false; break;
+        case OpCode.POP: sp--; break;
+        case OpCode.DUP: stack[sp] = stack[sp - 1]; sp++; break;
+
+        case OpCode.GET_LOCAL:
+          stack[sp++] = stack[base + (code[ip++] & 0xff)];
+          break;
+        case OpCode.SET_LOCAL:
+          stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+          break;
+        case OpCode.GET_UPVALUE:
+          stack[sp++] = frame.upvalues[code[ip++] & 0xff].get();
+          break;
+        case OpCode.SET_UPVALUE:
+          frame.upvalues[code[ip++] & 0xff].set(stack[sp - 1]);
+          break;
+        case OpCode.GET_GLOBAL: {
+          Global global = (Global) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          if (!global.defined) throw undefinedVariable(frame, ip, global);
+          stack[sp++] = global.value;
+          break;
+        }
+        case OpCode.SET_GLOBAL: {
+          Global global = (Global) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          if (!global.defined) throw undefinedVariable(frame, ip, global);
+          global.value = stack[sp - 1];
+          break;
+        }
+        case OpCode.DEFINE_GLOBAL: {
+          Global global = (Global) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          global.value = stack[--sp];
+          global.defined = true;
+          break;
+        }
+
+        case OpCode.GET_PROPERTY: {
+          Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          InlineCache cache = (InlineCache) constants[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+          ip += 4;
+          Object object = stack[sp - 1];
+          if (object instanceof LoxInstance) {
+            Object result = cache.get((LoxInstance) object, name);
+            if (result instanceof LoxFunction && ((LoxFunction) result).isGetter()) {
+              frame.ip = ip;
+              this.sp = sp;
+              boolean pushed = callGetter((LoxFunction) result, name);
+              sp = this.sp;
+              if (!pushed) break;
+              frame = frames[frameCount - 1];
+              code = frame.function.chunk.code;
+              constants = frame.function.chunk.constants;
+              ip = frame.ip;
+              base = frame.base;
+              break;
+            }
+            stack[sp - 1] = result;
+          } else if (object instanceof LoxNative) {
+            stack[sp - 1] = NativeMethod.get((LoxNative) object, name);
+          } else {
+            throw new RuntimeError(name, "Only instances have properties.");
+          }
+          break;
+        }
+        case OpCode.SET_PROPERTY: {
+          Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          InlineCache cache = (InlineCache) constants[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+          ip += 4;
+          Object object = stack[sp - 2];
+          if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+          }
+          Object value = stack[--sp];
+          cache.set((LoxInstance) object, name, value);
+          stack[sp - 1] = value;
+          break;
+        }
+        case OpCode.GET_SUPER: {
+          Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          LoxClass superclass = (LoxClass) stack[--sp];
+          LoxInstance object = (LoxInstance) stack[sp - 1];
+          LoxFunction method = superclass.findMethod(object, name.symbol);
+          if (method == null) {
+            throw new RuntimeError(name,
+                "Undefined property '" + name.lexeme + "'.");
+          }
+          if (method.isGetter()) {
+            frame.ip = ip;
+            this.sp = sp;
+            boolean pushed = callGetter(method, name);
+            sp = this.sp;
+            if (!pushed) break;
+            frame = frames[frameCount - 1];
+            code = frame.function.chunk.code;
+            constants = frame.function.chunk.constants;
+            ip = frame.ip;
+            base = frame.base;
+            break;
+          }
+          stack[sp - 1] = method;
+          break;
+        }
+        case OpCode.INDEX_GET: {
+          Object index = stack[--sp];
+          Object indexee = stack[sp - 1];
+          if (indexee instanceof LoxIndexable) {
+            stack[sp - 1] = ((LoxIndexable) indexee).get(frame.function.chunk.tokens[ip - 1], index);
+          } else {
+            stack[sp - 1] = null;
+          }
+          break;
+        }
+        case OpCode.INDEX_SET: {
+          Object value = stack[--sp];
+          Object index = stack[--sp];
+          Object indexee = stack[sp - 1];
+          Token bracket = frame.function.chunk.tokens[ip - 1];
+          if (!(indexee instanceof LoxIndexable)) {
+            throw new RuntimeError(bracket, "Variable is not indexable");
+          }
+          ((LoxIndexable) indexee).set(bracket, index, value);
+          stack[sp - 1] = value;
+          break;
+        }
+
+        case OpCode.EQUAL: {
+          Object b = stack[--sp];
+          stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], b);
+          break;
+        }
+        case OpCode.NOT_EQUAL: {
+          Object b = stack[--sp];
+          stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], b);
+          break;
+        }
+        case OpCode.GREATER: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(frame, ip, a, b);
+          stack[sp - 1] = (double) a > (double) b;
+          break;
+        }
+        case OpCode.GREATER_EQUAL: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(frame, ip, a, b);
+          stack[sp - 1] = (double) a >= (double) b;
+          break;
+        }
+        case OpCode.LESS: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(frame, ip, a, b);
+          stack[sp - 1] = (double) a < (double) b;
+          break;
+        }
+        case OpCode.LESS_EQUAL: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(frame, ip, a, b);
+          stack[sp - 1] = (double) a <= (double) b;
+          break;
+        }
+        case OpCode.ADD: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          if (a instanceof Double && b instanceof Double) {
+            stack[sp - 1] = (double) a + (double) b;
+          } else if (Rope.isString(a) && Rope.isString(b)) {
+            stack[sp - 1] = Rope.concat((CharSequence) a, (CharSequence) b);
+          } else if (Rope.isString(a) && b instanceof Double) {
+            stack[sp - 1] = Rope.concat((CharSequence) a, interpreter.stringify(b));
+          } else if (a instanceof Double && Rope.isString(b)) {
+            stack[sp - 1] = Rope.concat(interpreter.stringify(a), (CharSequence) b);
+          } else {
+            throw new RuntimeError(frame.function.chunk.tokens[ip - 1],
+                "Operands must be two numbers or two strings.");
+          }
+          break;
+        }
+        case OpCode.SUBTRACT: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperand(frame, ip, a);
+          checkNumberOperand(frame, ip, b);
+          stack[sp - 1] = (double) a - (double) b;
+          break;
+        }
+        case OpCode.MULTIPLY: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(frame, ip, a, b);
+          stack[sp - 1] = (double) a * (double) b;
+          break;
+        }
+        case OpCode.DIVIDE: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(frame, ip, a, b);
+          if ((double) b == 0.0) {
+            throw new RuntimeError(frame.function.chunk.tokens[ip - 1], "division by zero.");
+          }
+          stack[sp - 1] = (double) a / (double) b;
+          break;
+        }
+        case OpCode.MODULO: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(frame, ip, a, b);
+          stack[sp - 1] = Interpreter.modulo((double) a, (double) b);
+          break;
+        }
+        case OpCode.EXPONENT: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(frame, ip, a, b);
+          stack[sp - 1] = Math.pow((double) a, (double) b);
+          break;
+        }
+        case OpCode.NOT:
+          stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+          break;
+        case OpCode.NEGATE:
+          checkNumberOperand(frame, ip, stack[sp - 1]);
+          stack[sp - 1] = -(double) stack[sp - 1];
+          break;
+        case OpCode.INCREMENT:
+          checkNumberOperand(frame, ip, stack[sp - 1]);
+          stack[sp - 1] = (double) stack[sp - 1] + 1;
+          break;
+        case OpCode.DECREMENT:
+          checkNumberOperand(frame, ip, stack[sp - 1]);
+          stack[sp - 1] = (double) stack[sp - 1] - 1;
+          break;
+
+        case OpCode.JUMP:
+          ip += ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+          ip += 2;
+          break;
+        case OpCode.JUMP_IF_FALSE:
+          if (!Interpreter.isTruthy(stack[sp - 1])) {
+            ip += ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+          }
+          ip += 2;
+          break;
+        case OpCode.LOOP:
+          ip += 2;
+          ip -= ((code[ip - 2] & 0xff) << 8) | (code[ip - 1] & 0xff);
+          break;
+
+        case OpCode.CALL: {
+          int argCount = code[ip++] & 0xff;
+          frame.ip = ip;
+          this.sp = sp;
+          boolean pushed = callValue(stack[sp - 1 - argCount], argCount,
+              frame.function.chunk.tokens[ip - 1]);
+          sp = this.sp;
+          if (!pushed) break;
+          frame = frames[frameCount - 1];
+          code = frame.function.chunk.code;
+          constants = frame.function.chunk.constants;
+          ip = frame.ip;
+          base = frame.base;
+          break;
+        }
+        case OpCode.INVOKE: {
+          Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          InlineCache cache = (InlineCache) constants[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+          int argCount = code[ip + 4] & 0xff;
+          ip += 5;
+          frame.ip = ip;
+          this.sp = sp;
+          boolean pushed = invoke(name, cache, argCount, frame.function.chunk.tokens[ip - 1]);
+          sp = this.sp;
+          if (!pushed) break;
+          frame = frames[frameCount - 1];
+          code = frame.function.chunk.code;
+          constants = frame.function.chunk.constants;
+          ip = frame.ip;
+          base = frame.base;
+          break;
+        }
+        case OpCode.CLOSURE: {
+          CompiledFunction function = (CompiledFunction)
+              constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          Upvalue[] upvalues = new Upvalue[function.upvalueCount];
+          for (int i = 0; i < upvalues.length; i++) {
+            boolean isLocal = code[ip++] == 1;
+            int index = code[ip++] & 0xff;
+            upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.upvalues[index];
+          }
+          stack[sp++] = new VmClosure(this, function, upvalues, null);
+          break;
+        }
+        case OpCode.CLOSE_UPVALUE:
+          closeUpvalues(sp - 1);
+          sp--;
+          break;
+        case OpCode.RETURN: {
+          Object result = stack[--sp];
+          if (frame.constructing) result = stack[base];
+          closeUpvalues(base);
+          frameCount--;
+          sp = base;
+          if (frameCount == exitDepth) {
+            this.sp = sp;
+            return result;
+          }
+
+          stack[sp++] = result;
+          frame = frames[frameCount - 1];
+          code = frame.function.chunk.code;
+          constants = frame.function.chunk.constants;
+          ip = frame.ip;
+          base = frame.base;
+          break;
+        }
+        case OpCode.CLASS: {
+          Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          boolean hasSuper = code[ip + 2] == 1;
+          int methodCount = ((code[ip + 3] & 0xff) << 8) | (code[ip + 4] & 0xff);
+          int classMethodCount = ((code[ip + 5] & 0xff) << 8) | (code[ip + 6] & 0xff);
+          ip += 7;
+          this.sp = sp;
+          LoxClass klass = defineClass(name, hasSuper, methodCount, classMethodCount);
+          sp = this.sp;
+          stack[sp++] = klass;
+          break;
+        }
+        case OpCode.ARRAY: {
+          int count = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+          ip += 2;
+          Object[] elements = Arrays.copyOfRange(stack, sp - count, sp);
+          sp -= count;
+          stack[sp++] = new LoxArray(elements);
+          break;
+        }
+
+        case OpCode.ERROR:
+          throw new RuntimeError(frame.function.chunk.tokens[ip - 1],
+              (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+      }
+    }
+  }
+
+  /**
+   * Calls whatever is sitting below its arguments on the stack. Returns
+   * true if a new frame was pushed and the dispatch loop needs to switch to
+   * it; false if the call already completed and left its result in place.
+   */
+  private boolean callValue(Object callee, int argCount, Token paren) {
+    int base = sp - 1 - argCount;
+
+    if (callee instanceof VmClosure) {
+      VmClosure closure = (VmClosure) callee;
+      checkArity(closure, argCount, paren);
+      base = enter(closure, base, paren);
+      if (closure.receiver != null) stack[base] = closure.receiver;
+      return true;
+    }
+
+    if (callee instanceof LoxClass) {
+      LoxClass klass = (LoxClass) callee;
+      LoxFunction initializer = klass.initializer();
+      if (initializer == null || initializer instanceof VmClosure) {
+        checkArity(klass, argCount, paren);
+        LoxInstance instance = new LoxInstance(klass);
+        stack[base] = instance;
+        if (initializer == null) {
+          sp = base + 1;
+          return false;
+        }
+        enter((VmClosure) initializer, base, paren);
+        frames[frameCount - 1].constructing = true;
+        return true;
+      }
+    }
+
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    LoxCallable function = (LoxCallable) callee;
+    checkArity(function, argCount, paren);
+    Object result;
+    switch (argCount) {
+      case 0: result = function.call0(interpreter); break;
+      case 1: result = function.call1(interpreter, stack[base + 1]); break;
+      case 2: result = function.call2(interpreter, stack[base + 1], stack[base + 2]); break;
+      case 3:
+        result = function.call3(interpreter, stack[base + 1], stack[base + 2], stack[base + 3]);
+        break;
+      default: {
+        List<Object> arguments = new ArrayList<>(argCount);
+        for (int i = base + 1; i < sp; i++) {
+          arguments.add(stack[i]);
+        }
+        result = function.call(interpreter, arguments);
+      }
+    }
+    sp = base;
+    push(result);
+    return false;
+  }
+
+  /**
+   * Calls the property name of the receiver below the arguments. A method
+   * runs with the receiver left in its slot 0 instead of being bound. Same
+   * contract as {@link #callValue}.
+   */
+  private boolean invoke(Token name, InlineCache cache, int argCount, Token paren) {
+    int base = sp - 1 - argCount;
+    Object receiver = stack[base];
+
+    if (receiver instanceof LoxInstance) {
+      LoxFunction method = cache.method((LoxInstance) receiver, name);
+      if (method instanceof VmClosure) {
+        VmClosure closure = (VmClosure) method;
+        checkArity(closure, argCount, paren);
+        enter(closure, base, paren);
+        return true;
+      }
+      if (method != null) {
+        stack[base] = method.bind((LoxInstance) receiver);
+        return callValue(stack[base], argCount, paren);
+      }
+
+      Object result = cache.get((LoxInstance) receiver, name);
+      if (result instanceof LoxFunction && ((LoxFunction) result).isGetter()) {
+        result = ((LoxFunction) result).call0(interpreter);
+      }
+      stack[base] = result;
+    } else if (receiver instanceof LoxNative) {
+      invoke(receiver, NativeMethod.of((LoxNative) receiver, name), base, argCount, paren);
+      return false;
+    } else {
+      throw new RuntimeError(name, "Only instances have properties.");
+    }
+    return callValue(stack[base], argCount, paren);
+  }
+
+  /** Calls a method on a native value without binding it, leaving the result in its place. */
+  private void invoke(Object receiver, NativeMethod<Object> method, int base, int argCount,
+                      Token paren) {
+    method.checkArity(argCount, paren);
+    Object result;
+    switch (argCount) {
+      case 0: result = method.call0(interpreter, receiver); break;
+      case 1: result = method.call1(interpreter, receiver, stack[base + 1]); break;
+      case 2: result = method.call2(interpreter, receiver, stack[base + 1], stack[base + 2]); break;
+      case 3:
+        result = method.call3(interpreter, receiver, stack[base + 1], stack[base + 2], stack[base + 3]);
+        break;
+      default:
+        result = method.call(interpreter, receiver, Arrays.copyOfRange(stack, base + 1, sp));
+    }
+    sp = base;
+    push(result);
+  }
+
+  /**
+   * Invokes a getter on the receiver at the top of the stack, leaving its
+   * result in the receiver's place. Same contract as {@link #callValue}.
+   */
+  private boolean callGetter(LoxFunction getter, Token name) {
+    if (getter instanceof VmClosure) {
+      VmClosure closure = (VmClosure) getter;
+      int base = sp - 1;
+      pushFrame(closure.function, closure.upvalues, base, name);
+      if (closure.receiver != null) stack[base] = closure.receiver;
+      return true;
+    }
+    stack[sp - 1] = getter.call0(interpreter);
+    return false;
+  }
+
+  private void checkArity(LoxCallable function, int argCount, Token paren) {
+    if (argCount != function.arity() && !function.variadic()) {
+      throw new RuntimeError(paren, "Expected " +
+          function.arity() + " arguments but got " +
+          argCount + ".");
+    }
+  }
+
+  /**
+   * Starts running a closure whose callee slot is at base and returns where
+   * its frame begins. A call followed directly by RETURN is a tail call:
+   * the callee takes over the caller's frame, so tail-recursive code runs
+   * in a fixed number of frames.
+   */
+  private int enter(VmClosure closure, int base, Token paren) {
+    CallFrame caller = frames[frameCount - 1];
+    if (caller.function.chunk.code[caller.ip] != OpCode.RETURN) {
+      pushFrame(closure.function, closure.upvalues, base, paren);
+      return base;
+    }
+
+    closeUpvalues(caller.base);
+    System.arraycopy(stack, base, stack, caller.base, sp - base);
+    sp = caller.base + (sp - base);
+    caller.function = closure.function;
+    caller.upvalues = closure.upvalues;
+    caller.ip = 0;
+    caller.constructing = false;
+    return caller.base;
+  }
+
+  private void pushFrame(CompiledFunction function, Upvalue[] upvalues,
+                         int base, Token token) {
+    if (frameCount == FRAMES_MAX) {
+      throw new RuntimeError(token, "Stack overflow.");
+    }
+    CallFrame frame = frames[frameCount++];
+    frame.function = function;
+    frame.upvalues = upvalues;
+    frame.ip = 0;
+    frame.base = base;
+    frame.constructing = false;
+  }
+
+  private LoxClass defineClass(Token name, boolean hasSuper,
+                               int methodCount, int classMethodCount) {
+    SymbolMap<LoxFunction> methods = new SymbolMap<>(),
+        classMethods = new SymbolMap<>();
+
+    // The method closures were pushed in declaration order.
+    int first = sp - methodCount - classMethodCount;
+    for (int i = first; i < first + methodCount; i++) {
+      VmClosure method = (VmClosure) stack[i];
+      methods.put(method.function.declaration.name.symbol, method);
+    }
+    for (int i = first + methodCount; i < sp; i++) {
+      VmClosure method = (VmClosure) stack[i];
+      classMethods.put(method.function.declaration.name.symbol, method);
+    }
+    sp = first;
+
+    LoxClass superclass = null;
+    if (hasSuper) {
+      Object value = stack[sp - 1];
+      if (!(value instanceof LoxClass)) {
+        throw new RuntimeError(name, "Superclass must be a class");
+      }
+      superclass = (LoxClass) value;
+    }
+
+    LoxClass metaClass = new LoxClass(null, superclass,
+        name.lexeme + " metaClass", classMethods);
+    return new LoxClass(metaClass, superclass, name.lexeme, methods);
+  }
+
+  private Upvalue captureUpvalue(int slot) {
+    Upvalue previous = null;
+    Upvalue upvalue = openUpvalues;
+    while (upvalue != null && upvalue.slot > slot) {
+      previous = upvalue;
+      upvalue = upvalue.next;
+    }
+
+    if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+    Upvalue created = new Upvalue(stack, slot);
+    created.next = upvalue;
+    if (previous == null) {
+      openUpvalues = created;
+    } else {
+      previous.next = created;
+    }
+    return created;
+  }
+
+  private void closeUpvalues(int last) {
+    while (openUpvalues != null && openUpvalues.slot >= last) {
+      openUpvalues.close();
+      openUpvalues = openUpvalues.next;
+    }
+  }
+
+  private RuntimeError undefinedVariable(CallFrame frame, int ip, Global global) {
+    return new RuntimeError(frame.function.chunk.tokens[ip - 1],
+        "Undefined variable '" + global.name + "'.");
+  }
+
+  private void checkNumberOperand(CallFrame frame, int ip, Object operand) {
+    if (operand instanceof Double) return;
+    throw new RuntimeError(frame.function.chunk.tokens[ip - 1], "Operand must be a number.");
+  }
+
+  private void checkNumberOperands(CallFrame frame, int ip, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return;
+    throw new RuntimeError(frame.function.chunk.tokens[ip - 1], "Operands must be numbers.");
+  }
+
+  private void push(Object value) {
+    stack[sp++] = value;
+  }
+
+  private Object pop() {
+    return stack[--sp];
+  }
+}
@@ -0,0 +1,70 @@
+package org.lox.lox;
+
+import java.util.List;
+
+/**
+ * A function compiled to bytecode plus the variables it captured. Extends
+ * {@link LoxFunction} so classes, instances and natives work the same way
+ * under both execution engines.
+ */
+class VmClosure extends LoxFunction {
+
+  final CompiledFunction function;
+  final Upvalue[] upvalues;
+  final LoxInstance receiver;
+  private final VM vm;
+
+  VmClosure(VM vm, CompiledFunction function, Upvalue[] upvalues, LoxInstance receiver) {
+    super(function.declaration, null, function.isInitializer);
+    this.vm = vm;
+    this.function = function;
+    this.upvalues = upvalues;
+    this.receiver = receiver;
+  }
+
+  @Override
+  LoxFunction bind(LoxInstance instance) {
+    return new VmClosure(vm, function, upvalues, instance);
+  }
+
+  @Override
+  public int arity() {
+    return function.arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return vm.call(this, receiver, arguments);
+  }
+
+  @Override
+  public Object call0(Interpreter interpreter) {
+    return vm.call(this, receiver, 0, null, null, null);
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object a) {
+    return vm.call(this, receiver, 1, a, null, null);
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    return vm.call(this, receiver, 2, a, b, null);
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    return vm.call(this, receiver, 3, a, b, c);
+  }
+
+  @Override
+  Object callMethod(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+    return vm.call(this, receiver, arguments);
+  }
+
+  @Override
+  Object callMethod(Interpreter interpreter, LoxInstance receiver, int count,
+                    Object a, Object b, Object c) {
+    return vm.call(this, receiver, count, a, b, c);
+  }
+}
@@ -12,31 +12,33 @@ public class GenerateAst {
       System.exit(1);
     }
     String outputDir = args[0];
+    // Variable references carry where the Resolver found them: how many
+    // scopes out and which slot, or a depth of -1 for globals.
     defineAst(outputDir, "Expr", Arrays.asList(
-            "Assign   : Token name, Expr value",
-            "Binary   : Expr left, Token operator, Expr right",
+            "Assign   : Token name, Expr value | int depth = -1, int slot",
+            "Binary   : Expr left, Token operator, Expr right | | TypeFeedback feedback = TypeFeedback.UNINITIALIZED",
             "Call     : Expr callee, Token paren, List<Expr> arguments",
             "IndexGet : Expr indexee, Token bracket, Expr index",
             "IndexSet : Expr indexee, Token bracket, Expr index, Expr value",
             "Array    : Token bracket, List<Expr> elements",
-            "Get      : Expr object, Token name",
+            "Get      : Expr object, Token name | | InlineCache cache = new InlineCache()",
             "Grouping : Expr expression",
             "Literal  : Object value",
             "Logical  : Expr left, Token operator, Expr right",
-            "Set      : Expr object, Token name, Expr value",
-            "Super    : Token keyword, Token method",
-            "This     : Token keyword",
-            "Unary    : Token operator, Expr right, Boolean postfix",
-            "Variable : Token name"
+            "Set      : Expr object, Token name, Expr value | | InlineCache cache = new InlineCache()",
+            "Super    : Token keyword, Token method | int depth = -1, int slot",
+            "This     : Token keyword | int depth = -1, int slot",
+            "Unary    : Token operator, Expr right, Boolean postfix | | TypeFeedback feedback = TypeFeedback.UNINITIALIZED",
+            "Variable : Token name | int depth = -1, int slot"
     ));
     defineAst(outputDir, "Stmt", Arrays.asList(
-            "Block      : List<Stmt> statements",
+            "Block      : List<Stmt> statements | int slotCount, boolean flat",
             "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> classMethods, List<Stmt.Function> methods",
             "Expression : Expr expression",
-            "Function   : Token name, List<Token> parameters, List<Stmt> body",
+            "Function   : Token name, List<Token> parameters, List<Stmt> body | int slotCount, boolean captured | int calls, JitFunction jit, Boolean pure",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "While      : Expr condition, Stmt body",
-            "Return     : Token keyword, Expr value",
+            "Return     : Token keyword, Expr value | boolean tailCall",
             "Var        : Token name, Expr initializer"
     ));
     System.out.println("Done writing to: " + outputDir);
@@ -56,11 +58,15 @@ public class GenerateAst {
 
     defineVisitor(writer, baseName, types);
 
-    // The AST classes.
+    // The AST classes. Fields after a '|' are filled in by the Resolver
+    // rather than the parser, and fields after a second '|' are profiling
+    // state the Interpreter keeps while running.
     for (String type : types) {
       String className = type.split(":")[0].trim();
-      String fields = type.split(":")[1].trim();
-      defineType(writer, baseName, className, fields);
+      String[] fields = type.split(":")[1].split("\\|");
+      String resolved = fields.length > 1 && !fields[1].trim().isEmpty() ? fields[1].trim() : null;
+      String profile = fields.length > 2 ? fields[2].trim() : null;
+      defineType(writer, baseName, className, fields[0].trim(), resolved, profile);
     }
 
     // The base accept() method.
@@ -73,7 +79,8 @@ public class GenerateAst {
 
   private static void defineType(
           PrintWriter writer, String baseName,
-          String className, String fieldList) {
+          String className, String fieldList, String resolvedList,
+          String profileList) {
     writer.println("  static class " + className + " extends " +
             baseName + " {");
 
@@ -101,6 +108,22 @@ public class GenerateAst {
       writer.println("    final " + field + ";");
     }
 
+    // Resolver output.
+    if (resolvedList != null) {
+      writer.println();
+      for (String field : resolvedList.split(", ")) {
+        writer.println("    " + field + ";");
+      }
+    }
+
+    // Runtime profile.
+    if (profileList != null) {
+      writer.println();
+      for (String field : profileList.split(", ")) {
+        writer.println("    " + field + ";");
+      }
+    }
+
     writer.println("  }");
   }
 
@@ -0,0 +1,30 @@
+#!/bin/bash
+# Runs every test/*.lox script on each engine, and on the tree-walking
+# interpreter with the JIT both off and compiling almost at once, and
+# compares what it prints with the script's .expected file.
+#
+#   mvn -B -q compile && test/run.sh [script.lox ...]
+
+cd "$(dirname "$0")/.." || exit 1
+classes=target/classes
+
+failed=0
+scripts=("$@")
+[ ${#scripts[@]} -eq 0 ] && scripts=(test/*.lox)
+
+for script in "${scripts[@]}"; do
+  expected="${script%.lox}.expected"
+  for config in "tree -Dlox.jit.threshold=0" "tree -Dlox.jit.threshold=2" \
+                "closure -Dlox.jit.threshold=0" "vm -Dlox.jit.threshold=0"; do
+    set -- $config
+    actual=$(java "$2" -cp "$classes" org.lox.lox.Lox --engine="$1" "$script" 2>&1)
+    if [ "$actual" != "$(cat "$expected")" ]; then
+      echo "FAIL $script ($config)"
+      diff <(echo "$actual") "$expected" | head -20
+      failed=1
+    fi
+  done
+done
+
+[ $failed -eq 0 ] && echo "All tests passed."
+exit $failed